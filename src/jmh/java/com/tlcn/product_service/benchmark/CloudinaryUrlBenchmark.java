@@ -0,0 +1,34 @@
+package com.tlcn.product_service.benchmark;
+
+import com.tlcn.product_service.service.CloudinaryImageStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tách public id từ URL Cloudinary trước khi xóa ảnh (String.split theo regex ở mỗi lần gọi).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CloudinaryUrlBenchmark {
+
+    // Không để final: tránh JIT constant-fold đầu vào
+    private String url = "https://res.cloudinary.com/demo/image/upload/v1700000000/products/abc123.jpg";
+
+    @Benchmark
+    public String extractPublicIdFromUrl() {
+        return CloudinaryImageStorage.extractPublicIdFromUrl(url, "products");
+    }
+}
@@ -0,0 +1,108 @@
+package com.tlcn.product_service.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tlcn.product_service.avro.InventoryUpdateEvent;
+import com.tlcn.product_service.avro.ReservationStatus;
+import com.tlcn.product_service.avro.StockReservationRequestEvent;
+import com.tlcn.product_service.avro.StockReservationResponseEvent;
+import com.tlcn.product_service.kafka.EventCodec;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode của ProductEventConsumer (ConsumerRecord -> event) và encode của ProductEventProducer
+ * (event -> body gửi thẳng / payload outbox), theo từng định dạng product.kafka.encoding.
+ * Các method legacyMap* là cách cũ (HashMap + ObjectMapper) để so sánh, không phụ thuộc encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventCodecBenchmark {
+
+    @Param({"json", "avro"})
+    public String encoding;
+
+    private EventCodec codec;
+    private ConsumerRecord<String, byte[]> reservationRecord;
+    private StockReservationResponseEvent response;
+    private InventoryUpdateEvent inventoryUpdate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] legacyReservationJson;
+
+    @Setup
+    public void setUp() throws Exception {
+        codec = new EventCodec();
+        ReflectionTestUtils.setField(codec, "encoding", encoding);
+
+        StockReservationRequestEvent request = StockReservationRequestEvent.newBuilder()
+                .setOrderId(1_000_042L)
+                .setProductId(7L)
+                .setQuantity(3)
+                .build();
+        EventCodec.Encoded encoded = codec.encode(request);
+        reservationRecord = new ConsumerRecord<>("stock-reservation-request", 0, 0L, "7", encoded.body());
+        reservationRecord.headers().add(encoded.header());
+
+        response = StockReservationResponseEvent.newBuilder()
+                .setOrderId(1_000_042L)
+                .setProductId(7L)
+                .setNewStock(97)
+                .setStatus(ReservationStatus.SUCCESS)
+                .build();
+        inventoryUpdate = InventoryUpdateEvent.newBuilder()
+                .setProductId(7L)
+                .setNewStock(97)
+                .setSource("product-service-reservation")
+                .build();
+        legacyReservationJson = objectMapper.writeValueAsBytes(Map.of("orderId", 1_000_042L, "productId", 7L, "quantity", 3));
+    }
+
+    @Benchmark
+    public StockReservationRequestEvent consumerDecodeReservationRequest() {
+        return codec.decode(reservationRecord, StockReservationRequestEvent.class);
+    }
+
+    @Benchmark
+    public EventCodec.Encoded producerEncodeReservationResponse() {
+        return codec.encode(response);
+    }
+
+    @Benchmark
+    public String producerEncodeInventoryUpdateForOutbox() {
+        return EventCodec.toOutboxPayload(codec.encode(inventoryUpdate));
+    }
+
+    @Benchmark
+    public Map<?, ?> legacyMapDecodeReservationRequest() throws Exception {
+        return objectMapper.readValue(legacyReservationJson, Map.class);
+    }
+
+    @Benchmark
+    public byte[] legacyMapEncodeReservationResponse() throws Exception {
+        Map<String, Object> data = new HashMap<>();
+        data.put("orderId", response.getOrderId());
+        data.put("productId", response.getProductId());
+        data.put("newStock", response.getNewStock());
+        data.put("status", response.getStatus().name());
+        return objectMapper.writeValueAsBytes(data);
+    }
+}
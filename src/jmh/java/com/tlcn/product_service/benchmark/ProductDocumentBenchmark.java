@@ -0,0 +1,56 @@
+package com.tlcn.product_service.benchmark;
+
+import com.tlcn.product_service.model.ImageStatus;
+import com.tlcn.product_service.model.Product;
+import com.tlcn.product_service.model.ProductDocument;
+import com.tlcn.product_service.service.ProductSearchIndexer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Product -> ProductDocument, dùng chung cho indexer và reindex (ProductSearchIndexer.toDocument).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductDocumentBenchmark {
+
+    private Product product;
+
+    @Setup
+    public void setUp() {
+        product = Product.builder()
+                .id(42L)
+                .name("Tai nghe không dây")
+                .description("Tai nghe bluetooth chống ồn, pin 30 giờ")
+                .category("electronics")
+                .price(1_290_000.0)
+                .stock(250)
+                .keycloakId("3f6c2a8e-vendor")
+                .imageUrl("https://res.cloudinary.com/demo/image/upload/v1700000000/products/abc123.jpg")
+                .imageStatus(ImageStatus.READY)
+                .originalPriceBeforeFs(1_490_000.0)
+                .isFlashSale(true)
+                .flashSaleEndTime(Instant.now().plusSeconds(3600))
+                .build();
+    }
+
+    @Benchmark
+    public ProductDocument toDocument() {
+        return ProductSearchIndexer.toDocument(product);
+    }
+}
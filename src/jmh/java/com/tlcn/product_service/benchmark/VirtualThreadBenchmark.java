@@ -0,0 +1,124 @@
+package com.tlcn.product_service.benchmark;
+
+import com.tlcn.product_service.config.ThreadFactories;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Virtual thread vs platform thread trên đường blocking thật: mỗi invocation bắn {@code concurrency} lần đọc
+ * stock (như ProductRepository.findById) qua pool Hikari vào PostgreSQL rồi chờ tất cả xong.
+ * Throughput = số đợt/ms, SampleTime cho p99 của một đợt. Platform dùng pool cố định {@code platformThreads}
+ * (mặc định 200 như Tomcat), virtual tạo một thread mỗi task như khi bật spring.threads.virtual.enabled.
+ * <p>
+ * Cần PostgreSQL có bảng product với dữ liệu; cấu hình qua -Dbenchmark.jdbc.url/user/password
+ * (mặc định giống application.yml). Chạy: mvn -Pbenchmark verify -Djmh.args="VirtualThreadBenchmark".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VirtualThreadBenchmark {
+
+    private static final String STOCK_QUERY = "SELECT stock FROM product WHERE id = ?";
+
+    @Param({"virtual", "platform"})
+    public String threads;
+
+    @Param({"200", "1000"})
+    public int concurrency;
+
+    // Bằng spring.datasource.hikari.maximum-pool-size
+    @Param({"10"})
+    public int connectionPoolSize;
+
+    @Param({"200"})
+    public int platformThreads;
+
+    private HikariDataSource dataSource;
+    private ExecutorService executor;
+    private long[] productIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(System.getProperty("benchmark.jdbc.url", "jdbc:postgresql://localhost:5432/product_db"));
+        config.setUsername(System.getProperty("benchmark.jdbc.user", "postgres"));
+        config.setPassword(System.getProperty("benchmark.jdbc.password", "loi114"));
+        config.setMaximumPoolSize(connectionPoolSize);
+        config.setConnectionTimeout(60_000);
+        dataSource = new HikariDataSource(config);
+
+        List<Long> ids = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT id FROM product ORDER BY id LIMIT 1000");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getLong(1));
+            }
+        }
+        if (ids.isEmpty()) {
+            throw new IllegalStateException("Benchmark needs at least one row in product");
+        }
+        productIds = ids.stream().mapToLong(Long::longValue).toArray();
+
+        executor = "virtual".equals(threads)
+                ? Executors.newThreadPerTaskExecutor(ThreadFactories.named("bench-virtual", true))
+                : Executors.newFixedThreadPool(platformThreads, ThreadFactories.named("bench-platform", false));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+        dataSource.close();
+    }
+
+    @Benchmark
+    public long readStock() throws Exception {
+        List<Future<Integer>> futures = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            long productId = productIds[i % productIds.length];
+            futures.add(executor.submit(() -> readStock(productId)));
+        }
+        long total = 0;
+        for (Future<Integer> future : futures) {
+            total += future.get();
+        }
+        return total;
+    }
+
+    private int readStock(long productId) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(STOCK_QUERY)) {
+            statement.setLong(1, productId);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+}
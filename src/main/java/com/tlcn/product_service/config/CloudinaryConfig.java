@@ -1,10 +1,14 @@
 package com.tlcn.product_service.config;
 
 import com.cloudinary.Cloudinary;
+import com.tlcn.product_service.service.ImageStorage;
+import com.tlcn.product_service.service.LocalImageStorage;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -27,4 +31,11 @@ public class CloudinaryConfig {
         config.put("api_secret", apiSecret);
         return new Cloudinary(config);
     }
+
+    // product.image.storage=local: lưu ảnh vào thư mục local thay cho Cloudinary (dev/test)
+    @Bean
+    @ConditionalOnProperty(name = "product.image.storage", havingValue = "local")
+    public ImageStorage localImageStorage(@Value("${product.image.local-dir:${java.io.tmpdir}/product-images}") Path directory) {
+        return new LocalImageStorage(directory);
+    }
 }
\ No newline at end of file
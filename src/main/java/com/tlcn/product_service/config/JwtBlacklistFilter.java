@@ -1,6 +1,5 @@
 package com.tlcn.product_service.config;
 
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import jakarta.servlet.FilterChain;
@@ -11,10 +10,10 @@ import java.io.IOException;
 
 public class JwtBlacklistFilter extends OncePerRequestFilter {
 
-    private final RedisTemplate<String, String> redisTemplate;
+    private final TokenBlacklistCache tokenBlacklistCache;
 
-    public JwtBlacklistFilter(RedisTemplate<String, String> redisTemplate) {
-        this.redisTemplate = redisTemplate;
+    public JwtBlacklistFilter(TokenBlacklistCache tokenBlacklistCache) {
+        this.tokenBlacklistCache = tokenBlacklistCache;
     }
 
     @Override
@@ -23,7 +22,7 @@ public class JwtBlacklistFilter extends OncePerRequestFilter {
         String authHeader = request.getHeader("Authorization");
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
             String accessToken = authHeader.replace("Bearer ", "");
-            if (redisTemplate.hasKey("vendor:token:blacklist:" + accessToken)) {
+            if (tokenBlacklistCache.isBlacklisted(accessToken)) {
                 response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 response.getWriter().write("{\"success\": false, \"message\": \"Token is blacklisted\", \"data\": null}");
                 return;
@@ -1,17 +1,36 @@
 package com.tlcn.product_service.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.tlcn.product_service.kafka.KeyOrderedExecutor;
+import com.tlcn.product_service.kafka.ProductEventProducer;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.TopicConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.kafka.annotation.EnableKafka;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.*;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.support.converter.ByteArrayJsonMessageConverter;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -19,46 +38,178 @@ import java.util.Map;
 @Configuration
 public class KafkaConfig {
 
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private KeyOrderedExecutor keyOrderedExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Value("${spring.kafka.bootstrap-servers}")
     private String bootstrapServers;
 
     @Value("${spring.kafka.consumer.group-id}")
     private String groupId;
 
+    @Value("${product.reservation.batch.max-size:500}")
+    private int reservationBatchMaxSize;
+
+    @Value("${product.reservation.batch.max-linger-ms:50}")
+    private int reservationBatchMaxLingerMs;
+
+    @Value("${product.flash-sale.batch.max-size:200}")
+    private int flashSaleBatchMaxSize;
+
+    @Value("${product.flash-sale.batch.max-linger-ms:200}")
+    private int flashSaleBatchMaxLingerMs;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${product.inventory-update.partitions:6}")
+    private int inventoryUpdatePartitions;
+
+    @Value("${product.inventory-update.replicas:1}")
+    private int inventoryUpdateReplicas;
+
+    // inventory-update là snapshot stock theo productId: compaction giữ event mới nhất của mỗi key
+    @Bean
+    public NewTopic inventoryUpdateTopic() {
+        return TopicBuilder.name(ProductEventProducer.INVENTORY_UPDATE_TOPIC)
+                .partitions(inventoryUpdatePartitions)
+                .replicas(inventoryUpdateReplicas)
+                .compact()
+                .config(TopicConfig.MIN_COMPACTION_LAG_MS_CONFIG, "60000")
+                .build();
+    }
+
     @Bean
-    public ProducerFactory<String, String> producerFactory() {
+    public ProducerFactory<String, byte[]> producerFactory() {
         Map<String, Object> config = new HashMap<>();
         config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        return new DefaultKafkaProducerFactory<>(config);
+        // Value là byte[]: JSON (UTF-8) hoặc Avro, định dạng ghi trong header content-type (EventCodec)
+        config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        // Idempotent producer: retry không tạo duplicate và không đảo thứ tự trong cùng partition
+        config.put(ProducerConfig.ACKS_CONFIG, "all");
+        config.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        DefaultKafkaProducerFactory<String, byte[]> factory = new DefaultKafkaProducerFactory<>(config);
+        factory.addListener(new MicrometerProducerListener<>(meterRegistry));
+        return factory;
     }
 
     @Bean
-    public KafkaTemplate<String, String> kafkaTemplate() {
+    public KafkaTemplate<String, byte[]> kafkaTemplate() {
         return new KafkaTemplate<>(producerFactory());
     }
 
     @Bean
-    public ConsumerFactory<String, String> consumerFactory() {
+    public ConsumerFactory<String, byte[]> consumerFactory() {
         Map<String, Object> config = new HashMap<>();
         config.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         config.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
         config.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
         config.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-        return new DefaultKafkaConsumerFactory<>(config);
+        return withClientMetrics(new DefaultKafkaConsumerFactory<>(config));
     }
 
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory() {
-        ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> kafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory());
+        // Listener nhận POJO (FlashSaleEvent) được parse từ JSON; listener nhận ConsumerRecord tự decode bằng EventCodec
+        factory.setRecordMessageConverter(new ByteArrayJsonMessageConverter(objectMapper()));
+        // Listener tự ack; async acks => record có thể xong không theo thứ tự (KeyOrderedExecutor),
+        // container chỉ commit đến offset liên tục cuối cùng đã ack
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setAsyncAcks(true);
+        factory.getContainerProperties().setConsumerRebalanceListener(new ConsumerAwareRebalanceListener() {
+            @Override
+            public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                // Chờ các record đang xử lý song song xong để offset của chúng được commit trước khi mất partition
+                try {
+                    keyOrderedExecutor.awaitIdle();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        factory.setContainerCustomizer(this::configureListener);
+        applyThreadMode(factory, "kafka-listener");
         return factory;
     }
 
+    // Container factory cho batch listener: mỗi lần poll trả về tối đa max-size record,
+    // broker chờ tối đa max-linger-ms để gom đủ dữ liệu trước khi trả về.
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> batchKafkaListenerContainerFactory() {
+        return batchFactory(reservationBatchMaxSize, reservationBatchMaxLingerMs, "kafka-batch-listener");
+    }
+
+    // Batch listener của topic flash-sale: lưu lượng và chi phí mỗi batch khác stock-reservation-request nên cấu hình riêng
+    // (product.flash-sale.batch.*)
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> flashSaleBatchKafkaListenerContainerFactory() {
+        return batchFactory(flashSaleBatchMaxSize, flashSaleBatchMaxLingerMs, "kafka-flash-sale-batch-listener");
+    }
+
+    private ConcurrentKafkaListenerContainerFactory<String, byte[]> batchFactory(int maxSize, int maxLingerMs, String threadNamePrefix) {
+        Map<String, Object> config = new HashMap<>(consumerFactory().getConfigurationProperties());
+        config.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxSize);
+        config.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, maxLingerMs);
+        config.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, 64 * 1024);
+
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(withClientMetrics(new DefaultKafkaConsumerFactory<>(config)));
+        factory.setBatchListener(true);
+        factory.setContainerCustomizer(this::configureListener);
+        applyThreadMode(factory, threadNamePrefix);
+        return factory;
+    }
+
+    // Metric của Kafka client (kafka.consumer.fetch.manager.records.lag.max, ...) tag theo client.id
+    private DefaultKafkaConsumerFactory<String, byte[]> withClientMetrics(DefaultKafkaConsumerFactory<String, byte[]> factory) {
+        factory.addListener(new MicrometerConsumerListener<>(meterRegistry));
+        return factory;
+    }
+
+    // Cấu hình riêng cho từng listener theo id: product.kafka.listeners.<id>.concurrency / ack-mode / async-acks
+    private void configureListener(ConcurrentMessageListenerContainer<String, byte[]> container) {
+        // client.id = <listenerId>-<n> => consumer lag trên Prometheus tách được theo listener
+        if (container.getContainerProperties().getClientId().isEmpty()) {
+            container.getContainerProperties().setClientId(container.getListenerId());
+        }
+        String prefix = "product.kafka.listeners." + container.getListenerId() + ".";
+        Integer concurrency = environment.getProperty(prefix + "concurrency", Integer.class);
+        if (concurrency != null) {
+            container.setConcurrency(concurrency);
+        }
+        ContainerProperties.AckMode ackMode = environment.getProperty(prefix + "ack-mode", ContainerProperties.AckMode.class);
+        if (ackMode != null) {
+            container.getContainerProperties().setAckMode(ackMode);
+        }
+        Boolean asyncAcks = environment.getProperty(prefix + "async-acks", Boolean.class);
+        if (asyncAcks != null) {
+            container.getContainerProperties().setAsyncAcks(asyncAcks);
+        }
+    }
+
+    // Factory tự khai báo nên không được Spring Boot cấu hình virtual thread, phải gắn executor thủ công
+    private void applyThreadMode(ConcurrentKafkaListenerContainerFactory<String, byte[]> factory, String threadNamePrefix) {
+        if (!virtualThreads) {
+            return;
+        }
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix + "-");
+        executor.setVirtualThreads(true);
+        factory.getContainerProperties().setListenerTaskExecutor(executor);
+    }
+
     @Bean
     public ObjectMapper objectMapper() {
-        return new ObjectMapper();
+        // JavaTimeModule để serialize được các field Instant (flashSaleEndTime)
+        return new ObjectMapper().registerModule(new JavaTimeModule());
     }
 }
\ No newline at end of file
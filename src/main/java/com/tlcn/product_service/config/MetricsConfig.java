@@ -0,0 +1,22 @@
+package com.tlcn.product_service.config;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Bật @Timed cho bean Spring. Timer của ứng dụng:
+ * - product.service: từng operation của ProductService (tag class/method/exception)
+ * - product.segment: thời gian phía dependency, tag segment = elasticsearch | cloudinary
+ * Postgres đo bằng spring.data.repository.invocations, Kafka send bằng spring.kafka.template (Spring tự đăng ký).
+ * Histogram cho các timer bật trong management.metrics.distribution.percentiles-histogram.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+}
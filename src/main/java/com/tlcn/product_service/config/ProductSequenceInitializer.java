@@ -0,0 +1,66 @@
+package com.tlcn.product_service.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Product, OutboxEvent và SearchIndexChange chuyển id từ IDENTITY sang sequence. Trên database đã có dữ liệu,
+ * sequence do ddl-auto tạo bắt đầu từ 1 => đẩy sequence lên trên MAX(id) hiện có để không trùng khóa.
+ */
+@Component
+public class ProductSequenceInitializer {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductSequenceInitializer.class);
+
+    // Phải bằng allocationSize của các @SequenceGenerator
+    private static final int ALLOCATION_SIZE = 50;
+
+    // table -> sequence
+    private static final Map<String, String> SEQUENCES = Map.of(
+            "product", "product_seq",
+            "outbox_event", "outbox_event_seq",
+            "search_index_change", "search_index_change_seq");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // Inject để chắc chắn schema (và sequence) đã được Hibernate tạo trước khi chạy
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @PostConstruct
+    public void alignSequences() {
+        try {
+            String database = jdbcTemplate.execute(
+                    (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+            if (!"PostgreSQL".equals(database)) {
+                return;
+            }
+        } catch (Exception e) {
+            log.error("Failed to detect database for sequence alignment: {}", e.getMessage());
+            return;
+        }
+        SEQUENCES.forEach(this::alignSequence);
+    }
+
+    private void alignSequence(String table, String sequence) {
+        try {
+            Long maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM " + table, Long.class);
+            Long lastValue = jdbcTemplate.queryForObject("SELECT last_value FROM " + sequence, Long.class);
+            if (maxId != null && lastValue != null && lastValue < maxId) {
+                jdbcTemplate.queryForObject("SELECT setval('" + sequence + "', ?)", Long.class, maxId + ALLOCATION_SIZE);
+                log.info("Aligned {} above existing ids: maxId={}", sequence, maxId);
+            }
+        } catch (Exception e) {
+            log.error("Failed to align {}: {}", sequence, e.getMessage());
+        }
+    }
+}
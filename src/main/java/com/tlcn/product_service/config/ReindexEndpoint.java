@@ -0,0 +1,21 @@
+package com.tlcn.product_service.config;
+
+import com.tlcn.product_service.service.ProductReindexService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+// GET /actuator/reindex: tiến độ và throughput của lần reindex gần nhất (chỉ đọc, job được kích hoạt qua API admin)
+@Component
+@Endpoint(id = "reindex")
+public class ReindexEndpoint {
+
+    @Autowired
+    private ProductReindexService productReindexService;
+
+    @ReadOperation
+    public ProductReindexService.ReindexProgress progress() {
+        return productReindexService.progress();
+    }
+}
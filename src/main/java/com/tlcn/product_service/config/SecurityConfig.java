@@ -1,10 +1,12 @@
 package com.tlcn.product_service.config;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.http.HttpStatus;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.AuthorizationManager;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
@@ -12,7 +14,11 @@ import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.HttpStatusEntryPoint;
+import org.springframework.security.web.access.intercept.RequestAuthorizationContext;
 import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
+import org.springframework.security.web.util.matcher.IpAddressMatcher;
+
+import java.util.List;
 
 @Configuration
 @EnableWebSecurity
@@ -20,7 +26,11 @@ import org.springframework.security.web.authentication.www.BasicAuthenticationFi
 public class SecurityConfig {
 
     @Autowired
-    private RedisTemplate<String, String> redisTemplate;
+    private TokenBlacklistCache tokenBlacklistCache;
+
+    // Dải địa chỉ của Prometheus được scrape /actuator/prometheus không cần token
+    @Value("${product.metrics.scrape-allowed-cidrs:127.0.0.1/32,::1/128}")
+    private List<String> scrapeAllowedCidrs;
 
     @Bean
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
@@ -33,13 +43,17 @@ public class SecurityConfig {
 
             //2 Cấu hình quyền truy cập (Authorization rules)
             .authorizeHttpRequests(auth -> auth
+                // Actuator: chỉ health/info public, metrics chỉ cho scraper, còn lại (reindex, ...) chỉ admin
+                .requestMatchers("/actuator/health", "/actuator/health/**", "/actuator/info").permitAll()
+                .requestMatchers("/actuator/prometheus").access(fromScraper())
+                .requestMatchers("/actuator/**").hasRole("ADMIN")
+
                 // Public endpoints (cho người dùng xem sản phẩm)
                 .requestMatchers(
                     "/api/products/{id}",
                     "/api/products/search",
                     "/api/products/vendor_id",
-                    "/api/products/vendor_id/search",
-                    "/actuator/**"
+                    "/api/products/vendor_id/search"
                 ).permitAll()
 
                 // Các endpoint còn lại yêu cầu authentication
@@ -66,8 +80,14 @@ public class SecurityConfig {
             )
 
             //2 Filter chặn token trong blacklist (logout)
-            .addFilterBefore(new JwtBlacklistFilter(redisTemplate), BasicAuthenticationFilter.class);
+            .addFilterBefore(new JwtBlacklistFilter(tokenBlacklistCache), BasicAuthenticationFilter.class);
 
         return http.build();
     }
+
+    private AuthorizationManager<RequestAuthorizationContext> fromScraper() {
+        List<IpAddressMatcher> matchers = scrapeAllowedCidrs.stream().map(String::trim).map(IpAddressMatcher::new).toList();
+        return (authentication, context) -> new AuthorizationDecision(
+                matchers.stream().anyMatch(matcher -> matcher.matches(context.getRequest())));
+    }
 }
\ No newline at end of file
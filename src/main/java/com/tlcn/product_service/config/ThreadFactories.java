@@ -0,0 +1,20 @@
+package com.tlcn.product_service.config;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Tạo thread cho các executor nội bộ theo chế độ spring.threads.virtual.enabled:
+ * virtual thread khi bật, platform thread (daemon) khi tắt.
+ */
+public final class ThreadFactories {
+
+    private ThreadFactories() {
+    }
+
+    public static ThreadFactory named(String prefix, boolean virtual) {
+        if (virtual) {
+            return Thread.ofVirtual().name(prefix + "-", 1).factory();
+        }
+        return Thread.ofPlatform().name(prefix + "-", 1).daemon(true).factory();
+    }
+}
@@ -0,0 +1,317 @@
+package com.tlcn.product_service.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.SubscriptionListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lớp membership trong bộ nhớ cho blacklist token (key "vendor:token:blacklist:{token}" do service khác ghi).
+ * Bloom filter chứa digest SHA-256 của các token bị blacklist, được nạp bằng SCAN và cập nhật qua
+ * Redis keyspace notification. Filter trả lời "chắc chắn không có" => bỏ qua Redis; "có thể có" =>
+ * kiểm tra cache dương tính ngắn hạn rồi mới xác nhận bằng Redis.
+ * Khi filter chưa đồng bộ thì luôn hỏi Redis như trước. Filter chỉ được dùng khi kênh pub/sub còn sống:
+ * mỗi instance tự publish heartbeat lên kênh riêng; quá heartbeat-timeout không nhận được heartbeat, hoặc
+ * subscription bị (re)subscribe/unsubscribe (mất kết nối), filter bị coi là lỗi thời cho tới khi rebuild xong
+ * sau khi kết nối đã hồi phục, vì notification trong khoảng mất kết nối không bao giờ được gửi lại.
+ */
+@Component
+public class TokenBlacklistCache implements MessageListener, SubscriptionListener {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenBlacklistCache.class);
+
+    static final String KEY_PREFIX = "vendor:token:blacklist:";
+
+    // K = keyspace channel, g = DEL/EXPIRE, $ = SET, x = expired
+    static final String REQUIRED_NOTIFY_FLAGS = "Kg$x";
+
+    private static final String NOTIFY_KEYSPACE_EVENTS = "notify-keyspace-events";
+
+    @Autowired
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${security.token-blacklist.filter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${security.token-blacklist.filter.expected-insertions:100000}")
+    private int expectedInsertions;
+
+    @Value("${security.token-blacklist.filter.fpp:0.01}")
+    private double fpp;
+
+    @Value("${security.token-blacklist.positive-cache-ttl:30s}")
+    private Duration positiveCacheTtl;
+
+    // false => không tự sửa config Redis, chỉ kiểm tra; thiếu flag thì tắt filter (ops phải cấu hình)
+    @Value("${security.token-blacklist.filter.configure-notifications:true}")
+    private boolean configureNotifications;
+
+    @Value("${security.token-blacklist.filter.heartbeat-timeout:3s}")
+    private Duration heartbeatTimeout;
+
+    private final String heartbeatChannel = "product:token-blacklist:heartbeat:" + UUID.randomUUID();
+
+    private volatile TokenBloomFilter filter;
+    private volatile TokenBloomFilter rebuilding;
+    private volatile boolean subscribed;
+    private volatile boolean synced;
+    private volatile long lastHeartbeat;
+    // Tăng mỗi khi có thể đã lỡ notification; rebuild chỉ đánh dấu synced nếu không có sự kiện nào xen giữa
+    private final AtomicLong generation = new AtomicLong();
+
+    // digest (hex) -> thời điểm hết hạn của kết quả "đã bị blacklist"
+    private final ConcurrentHashMap<String, Long> positiveCache = new ConcurrentHashMap<>();
+
+    private Counter negativeCounter;
+    private Counter cacheHitCounter;
+    private Counter redisHitCounter;
+    private Counter falsePositiveCounter;
+
+    @PostConstruct
+    public void init() {
+        negativeCounter = counter("negative");
+        cacheHitCounter = counter("cache_hit");
+        redisHitCounter = counter("redis_hit");
+        falsePositiveCounter = counter("false_positive");
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (!ensureKeyspaceNotifications()) {
+                return;
+            }
+            // Filter được bật khi nhận xác nhận subscribe (onPatternSubscribed) và heartbeat đầu tiên
+            redisMessageListenerContainer.addMessageListener(this, List.of(
+                    new PatternTopic("__keyspace@*__:" + KEY_PREFIX + "*"), new ChannelTopic(heartbeatChannel)));
+        } catch (Exception e) {
+            log.warn("Token blacklist filter disabled, falling back to Redis lookups: {}", e.getMessage());
+        }
+    }
+
+    // Cần keyspace notification cho event string (SET) và generic (DEL/EXPIRE). Chỉ thêm flag còn thiếu,
+    // không ghi đè giá trị server-wide mà client khác có thể đang dùng.
+    private boolean ensureKeyspaceNotifications() {
+        String current = redisTemplate.execute((RedisCallback<String>) connection -> {
+            Properties config = connection.serverCommands().getConfig(NOTIFY_KEYSPACE_EVENTS);
+            return config == null ? "" : config.getProperty(NOTIFY_KEYSPACE_EVENTS, "");
+        });
+        String missing = missingNotifyFlags(current);
+        if (missing.isEmpty()) {
+            return true;
+        }
+        if (!configureNotifications) {
+            log.warn("Redis {}='{}' lacks '{}', token blacklist filter disabled (falling back to Redis lookups)",
+                    NOTIFY_KEYSPACE_EVENTS, current, missing);
+            return false;
+        }
+        String merged = current + missing;
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.serverCommands().setConfig(NOTIFY_KEYSPACE_EVENTS, merged);
+            return null;
+        });
+        log.info("Redis {} changed from '{}' to '{}'", NOTIFY_KEYSPACE_EVENTS, current, merged);
+        return true;
+    }
+
+    static String missingNotifyFlags(String current) {
+        String flags = current == null ? "" : current;
+        StringBuilder missing = new StringBuilder();
+        for (char flag : REQUIRED_NOTIFY_FLAGS.toCharArray()) {
+            // 'A' là alias của "g$lshzxetd" (mọi class event, không gồm K/E)
+            boolean covered = flags.indexOf(flag) >= 0 || (flag != 'K' && flags.indexOf('A') >= 0);
+            if (!covered) {
+                missing.append(flag);
+            }
+        }
+        return missing.toString();
+    }
+
+    public boolean isBlacklisted(String token) {
+        TokenBloomFilter current = filter;
+        if (!isFilterUsable() || current == null) {
+            return Boolean.TRUE.equals(redisTemplate.hasKey(KEY_PREFIX + token));
+        }
+
+        byte[] digest = digest(token);
+        if (!current.mightContain(digest)) {
+            negativeCounter.increment();
+            return false;
+        }
+
+        String digestKey = HexFormat.of().formatHex(digest);
+        Long expiresAt = positiveCache.get(digestKey);
+        if (expiresAt != null && expiresAt > System.currentTimeMillis()) {
+            cacheHitCounter.increment();
+            return true;
+        }
+
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(KEY_PREFIX + token))) {
+            redisHitCounter.increment();
+            positiveCache.put(digestKey, System.currentTimeMillis() + positiveCacheTtl.toMillis());
+            return true;
+        }
+        positiveCache.remove(digestKey);
+        falsePositiveCounter.increment();
+        return false;
+    }
+
+    private boolean isFilterUsable() {
+        return synced && System.currentTimeMillis() - lastHeartbeat <= heartbeatTimeout.toMillis();
+    }
+
+    @Override
+    public void onPatternSubscribed(byte[] pattern, long count) {
+        // Subscribe lần đầu hoặc subscribe lại sau khi mất kết nối: notification trong lúc mất kết nối đã bị lỡ
+        subscribed = true;
+        markUnsynced("keyspace notifications (re)subscribed");
+    }
+
+    @Override
+    public void onPatternUnsubscribed(byte[] pattern, long count) {
+        subscribed = false;
+        markUnsynced("keyspace notifications unsubscribed");
+    }
+
+    private void markUnsynced(String reason) {
+        generation.incrementAndGet();
+        if (synced) {
+            synced = false;
+            log.warn("Token blacklist filter out of sync ({}), falling back to Redis lookups until rebuilt", reason);
+        }
+    }
+
+    /**
+     * Publish heartbeat lên kênh riêng của instance và phát hiện kênh pub/sub bị đứt. Khi kênh sống lại
+     * (heartbeat đến sau khi bị đánh dấu lỗi thời) thì rebuild ngay thay vì chờ chu kỳ rebuild.
+     */
+    @Scheduled(fixedDelayString = "${security.token-blacklist.filter.heartbeat-interval-ms:1000}")
+    public void heartbeat() {
+        if (!enabled || !subscribed) {
+            return;
+        }
+        boolean alive = System.currentTimeMillis() - lastHeartbeat <= heartbeatTimeout.toMillis();
+        if (!alive) {
+            markUnsynced("no heartbeat for " + heartbeatTimeout);
+        }
+        try {
+            redisTemplate.convertAndSend(heartbeatChannel, "1");
+        } catch (Exception e) {
+            markUnsynced("heartbeat publish failed: " + e.getMessage());
+            return;
+        }
+        if (alive && !synced) {
+            rebuild();
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        if (heartbeatChannel.equals(channel)) {
+            lastHeartbeat = System.currentTimeMillis();
+            return;
+        }
+        String event = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = channel.indexOf(KEY_PREFIX);
+        if (index < 0) {
+            return;
+        }
+        byte[] digest = digest(channel.substring(index + KEY_PREFIX.length()));
+        if ("set".equals(event)) {
+            TokenBloomFilter current = filter;
+            if (current != null) {
+                current.put(digest);
+            }
+            TokenBloomFilter next = rebuilding;
+            if (next != null) {
+                next.put(digest);
+            }
+        } else if ("del".equals(event) || "expired".equals(event)) {
+            positiveCache.remove(HexFormat.of().formatHex(digest));
+        }
+    }
+
+    // Dựng lại filter định kỳ để loại các token đã hết hạn và bù các notification bị lỡ
+    @Scheduled(fixedDelayString = "${security.token-blacklist.filter.rebuild-interval-ms:300000}")
+    public void rebuild() {
+        // Không có notification thì filter có thể bỏ sót token mới bị blacklist => không bao giờ dùng filter
+        if (!enabled || !subscribed) {
+            return;
+        }
+        long startGeneration = generation.get();
+        try {
+            TokenBloomFilter rebuilt = new TokenBloomFilter(expectedInsertions, fpp);
+            // Notification đến trong lúc SCAN được ghi vào cả filter cũ lẫn filter mới
+            rebuilding = rebuilt;
+            long count = redisTemplate.execute((RedisCallback<Long>) connection -> {
+                long n = 0;
+                ScanOptions options = ScanOptions.scanOptions().match(KEY_PREFIX + "*").count(1000).build();
+                try (Cursor<byte[]> cursor = connection.keyCommands().scan(options)) {
+                    while (cursor.hasNext()) {
+                        String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                        rebuilt.put(digest(key.substring(KEY_PREFIX.length())));
+                        n++;
+                    }
+                }
+                return n;
+            });
+            filter = rebuilt;
+            rebuilding = null;
+            positiveCache.values().removeIf(expiresAt -> expiresAt < System.currentTimeMillis());
+            // Mất kết nối trong lúc SCAN => filter mới có thể thiếu token, chờ lần rebuild sau
+            synced = generation.get() == startGeneration;
+            log.info("Token blacklist filter rebuilt: {} tokens, synced={}", count, synced);
+        } catch (Exception e) {
+            rebuilding = null;
+            synced = false;
+            log.error("Failed to rebuild token blacklist filter, falling back to Redis lookups: {}", e.getMessage());
+        }
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder("product.token.blacklist.lookups")
+                .description("JWT blacklist lookups by outcome")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static byte[] digest(String token) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,22 +1,33 @@
 package com.tlcn.product_service.controller;
 
+import com.tlcn.product_service.dto.CursorPage;
 import com.tlcn.product_service.dto.ProductDTO;
+import com.tlcn.product_service.dto.ProductImportResult;
 import com.tlcn.product_service.dto.ResponseDTO;
 import com.tlcn.product_service.model.Product;
 import com.tlcn.product_service.model.ProductDocument;
+import com.tlcn.product_service.service.ProductExportService;
+import com.tlcn.product_service.service.ProductImportService;
+import com.tlcn.product_service.service.ProductReindexService;
 import com.tlcn.product_service.service.ProductService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.security.core.Authentication;
 
 import jakarta.validation.Valid;
 
+import java.io.InputStream;
+import java.util.Locale;
+
 @RestController
 @RequestMapping("/api/products")
 public class ProductController {
@@ -24,6 +35,15 @@ public class ProductController {
     @Autowired
     private ProductService productService;
 
+    @Autowired
+    private ProductExportService productExportService;
+
+    @Autowired
+    private ProductReindexService productReindexService;
+
+    @Autowired
+    private ProductImportService productImportService;
+
     @PostMapping(value = "/vendor", consumes = {"multipart/form-data"})
     @PreAuthorize("hasRole('VENDOR')")
     public ResponseEntity<ResponseDTO<Product>> createProduct(
@@ -35,6 +55,22 @@ public class ProductController {
         return ResponseEntity.ok(new ResponseDTO<>(true, "Product created successfully", product));
     }
 
+    // Import hàng loạt từ body NDJSON (mỗi dòng một ProductDTO) hoặc CSV có header, đọc dần theo chunk
+    @PostMapping(value = "/vendor/import", consumes = {"application/x-ndjson", "text/csv"})
+    @PreAuthorize("hasRole('VENDOR')")
+    public ResponseEntity<ResponseDTO<ProductImportResult>> importProducts(
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+            InputStream body,
+            Authentication authentication) {
+        String keycloakId = authentication.getName();
+        ProductImportService.Format format = contentType.startsWith("text/csv")
+                ? ProductImportService.Format.CSV
+                : ProductImportService.Format.NDJSON;
+        ProductImportResult result = productImportService.importProducts(keycloakId, format, body);
+        return ResponseEntity.ok(new ResponseDTO<>(result.getFailed() == 0, "Imported " + result.getImported()
+                + " of " + result.getTotalRows() + " products", result));
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<ResponseDTO<Product>> getProduct(@PathVariable Long id) {
         Product product = productService.getProduct(id);
@@ -61,22 +97,33 @@ public class ProductController {
         return ResponseEntity.ok(new ResponseDTO<>(true, "Product deleted successfully", null));
     }
 
+    // Có tham số cursor (kể cả rỗng cho trang đầu) => keyset pagination, trả về CursorPage không có total count
     @GetMapping("/vendor_id")
-    public ResponseEntity<ResponseDTO<Page<Product>>> getProductsByKeycloakId(
+    public ResponseEntity<ResponseDTO<?>> getProductsByKeycloakId(
             @RequestParam String keycloakId,
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "10") int size) {
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor) {
+        if (cursor != null) {
+            CursorPage<Product> products = productService.getProductsByKeycloakIdAfter(keycloakId, cursor, size);
+            return ResponseEntity.ok(new ResponseDTO<>(true, "Products retrieved successfully", products));
+        }
         Pageable pageable = PageRequest.of(page, size);
         Page<Product> products = productService.getProductsByKeycloakIdWithoutAuth(keycloakId, pageable);
         return ResponseEntity.ok(new ResponseDTO<>(true, "Products retrieved successfully", products));
     }
 
     @GetMapping("/vendor_id/search")
-    public ResponseEntity<ResponseDTO<Page<ProductDocument>>> searchProductsByKeycloakId(
+    public ResponseEntity<ResponseDTO<?>> searchProductsByKeycloakId(
             @RequestParam String keycloakId,
             @RequestParam String query,
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "10") int size) {
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor) {
+        if (cursor != null) {
+            CursorPage<ProductDocument> products = productService.searchProductsByKeycloakIdAfter(keycloakId, query, cursor, size);
+            return ResponseEntity.ok(new ResponseDTO<>(true, "Vendor products retrieved successfully", products));
+        }
         Pageable pageable = PageRequest.of(page, size);
         Page<ProductDocument> products = productService.searchProductsByKeycloakIdWithoutAuth(keycloakId, query, pageable);
         return ResponseEntity.ok(new ResponseDTO<>(true, "Vendor products retrieved successfully", products));
@@ -84,11 +131,16 @@ public class ProductController {
     
     @GetMapping("/vendor")
     @PreAuthorize("hasRole('VENDOR')")
-    public ResponseEntity<ResponseDTO<Page<Product>>> getProductsByVendor(
+    public ResponseEntity<ResponseDTO<?>> getProductsByVendor(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor,
             Authentication authentication) {
         String keycloakId = authentication.getName();
+        if (cursor != null) {
+            CursorPage<Product> products = productService.getProductsByKeycloakIdAfter(keycloakId, cursor, size);
+            return ResponseEntity.ok(new ResponseDTO<>(true, "Vendor products retrieved successfully", products));
+        }
         Pageable pageable = PageRequest.of(page, size);
         Page<Product> products = productService.getProductsByKeycloakIdWithoutAuth(keycloakId, pageable);
         return ResponseEntity.ok(new ResponseDTO<>(true, "Vendor products retrieved successfully", products));
@@ -96,22 +148,33 @@ public class ProductController {
 
     @GetMapping("/vendor/search")
     @PreAuthorize("hasRole('VENDOR')")
-    public ResponseEntity<ResponseDTO<Page<ProductDocument>>> searchProductsByVendor(
+    public ResponseEntity<ResponseDTO<?>> searchProductsByVendor(
             @RequestParam String query,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor,
             Authentication authentication) {
         String keycloakId = authentication.getName();
+        if (cursor != null) {
+            CursorPage<ProductDocument> products = productService.searchProductsByKeycloakIdAfter(keycloakId, query, cursor, size);
+            return ResponseEntity.ok(new ResponseDTO<>(true, "Vendor products retrieved successfully", products));
+        }
         Pageable pageable = PageRequest.of(page, size);
         Page<ProductDocument> products = productService.searchProductsByKeycloakIdWithoutAuth(keycloakId, query, pageable);
         return ResponseEntity.ok(new ResponseDTO<>(true, "Vendor products retrieved successfully", products));
     }
     
+    // Có tham số cursor => search_after trên point-in-time, nextCursor trả về trong data
     @GetMapping("/search")
-    public ResponseEntity<ResponseDTO<Page<ProductDocument>>> searchProducts(
+    public ResponseEntity<ResponseDTO<?>> searchProducts(
             @RequestParam String query,
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "10") int size) {
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor) {
+        if (cursor != null) {
+            CursorPage<ProductDocument> products = productService.searchProductsAfter(query, cursor, size);
+            return ResponseEntity.ok(new ResponseDTO<>(true, "Products retrieved successfully", products));
+        }
         Pageable pageable = PageRequest.of(page, size);
         Page<ProductDocument> products = productService.searchProducts(query, pageable);
         return ResponseEntity.ok(new ResponseDTO<>(true, "Products retrieved successfully", products));
@@ -129,11 +192,18 @@ public class ProductController {
 
     @GetMapping("/vendor/deleted")
     @PreAuthorize("hasRole('VENDOR')")
-    public ResponseEntity<ResponseDTO<Page<Product>>> getDeletedProductsByVendor(
+    public ResponseEntity<ResponseDTO<?>> getDeletedProductsByVendor(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor,
             Authentication authentication) {
         String keycloakId = authentication.getName();
+        if (cursor != null) {
+            CursorPage<Product> deletedProducts = productService.getDeletedProductsByVendorAfter(keycloakId, cursor, size);
+            return ResponseEntity.ok(
+                new ResponseDTO<>(true, "Deleted products retrieved successfully", deletedProducts)
+            );
+        }
         Pageable pageable = PageRequest.of(page, size);
         Page<Product> deletedProducts = productService.getDeletedProductsByVendor(keycloakId, pageable);
 
@@ -152,12 +222,60 @@ public class ProductController {
     }
     
     @GetMapping("/flash_sale/search")
-    public ResponseEntity<ResponseDTO<Page<ProductDocument>>> searchFlashSaleProducts(
+    public ResponseEntity<ResponseDTO<?>> searchFlashSaleProducts(
             @RequestParam String query,
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "10") int size) {
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor) {
+        if (cursor != null) {
+            CursorPage<ProductDocument> products = productService.searchFlashSaleProductsAfter(query, cursor, size);
+            return ResponseEntity.ok(new ResponseDTO<>(true, "Flash Sale products search retrieved successfully", products));
+        }
         Pageable pageable = PageRequest.of(page, size);
         Page<ProductDocument> products = productService.searchFlashSaleProducts(query, pageable);
         return ResponseEntity.ok(new ResponseDTO<>(true, "Flash Sale products search retrieved successfully", products));
     }
-}
\ No newline at end of file
+
+    // Dựng lại index Elasticsearch từ Postgres; theo dõi tiến độ qua /actuator/reindex
+    @PostMapping("/admin/reindex")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ResponseDTO<ProductReindexService.ReindexProgress>> reindexProducts() {
+        ProductReindexService.ReindexProgress progress = productReindexService.start();
+        return ResponseEntity.accepted().body(new ResponseDTO<>(true, "Reindex started", progress));
+    }
+
+    // Export toàn bộ sản phẩm đang hoạt động, ghi dần ra response (format = ndjson | csv)
+    @GetMapping("/export")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<StreamingResponseBody> exportProducts(@RequestParam(defaultValue = "ndjson") String format) {
+        return export(null, format, "products");
+    }
+
+    @GetMapping("/vendor/export")
+    @PreAuthorize("hasRole('VENDOR')")
+    public ResponseEntity<StreamingResponseBody> exportProductsByVendor(
+            @RequestParam(defaultValue = "ndjson") String format,
+            Authentication authentication) {
+        String keycloakId = authentication.getName();
+        return export(keycloakId, format, "vendor-products");
+    }
+
+    private ResponseEntity<StreamingResponseBody> export(String keycloakId, String format, String fileName) {
+        ProductExportService.Format exportFormat = parseExportFormat(format);
+        StreamingResponseBody body = out -> productExportService.export(keycloakId, exportFormat, out);
+        boolean csv = exportFormat == ProductExportService.Format.CSV;
+        return ResponseEntity.ok()
+                .contentType(csv ? new MediaType("text", "csv") : new MediaType("application", "x-ndjson"))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + fileName + (csv ? ".csv" : ".ndjson") + "\"")
+                .body(body);
+    }
+
+    private static ProductExportService.Format parseExportFormat(String format) {
+        try {
+            return ProductExportService.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ProductService.CustomException("Unsupported export format: " + format);
+        }
+    }
+}
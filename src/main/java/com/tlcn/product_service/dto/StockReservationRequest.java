@@ -0,0 +1,14 @@
+package com.tlcn.product_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockReservationRequest {
+    private Long orderId;
+    private Long productId;
+    private int quantity;
+}
@@ -0,0 +1,191 @@
+package com.tlcn.product_service.kafka;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encode/decode event Kafka theo schema Avro trong src/main/avro (class sinh bởi avro-maven-plugin).
+ * Định dạng được thỏa thuận qua header "content-type": avro/binary hoặc application/json; record không có
+ * header được coi là JSON (producer cũ). Cả hai chiều đều đọc/ghi thẳng vào class sinh ra theo thứ tự field
+ * của schema, không đi qua Map. Định dạng khi gửi chọn bằng product.kafka.encoding (json | avro).
+ */
+@Component
+public class EventCodec {
+
+    public static final String CONTENT_TYPE_HEADER = "content-type";
+    public static final String JSON = "application/json";
+    public static final String AVRO = "avro/binary";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Value("${product.kafka.encoding:json}")
+    private String encoding;
+
+    public record Encoded(byte[] body, String contentType) {
+
+        public Header header() {
+            return new RecordHeader(CONTENT_TYPE_HEADER, contentType.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private final ConcurrentHashMap<Schema, SpecificDatumWriter<SpecificRecord>> writers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Class<?>, SpecificDatumReader<?>> readers = new ConcurrentHashMap<>();
+
+    public Encoded encode(SpecificRecord record) {
+        return "avro".equalsIgnoreCase(encoding) ? new Encoded(toAvro(record), AVRO) : new Encoded(toJson(record), JSON);
+    }
+
+    /**
+     * Cột payload (text) của outbox_event: JSON giữ nguyên, Avro lưu base64 để không phải đổi kiểu cột.
+     */
+    public static String toOutboxPayload(Encoded encoded) {
+        return AVRO.equals(encoded.contentType())
+                ? Base64.getEncoder().encodeToString(encoded.body())
+                : new String(encoded.body(), StandardCharsets.UTF_8);
+    }
+
+    public static Encoded fromOutboxPayload(String payload, String contentType) {
+        if (AVRO.equals(contentType)) {
+            return new Encoded(Base64.getDecoder().decode(payload), AVRO);
+        }
+        // Row cũ chưa có content_type là JSON
+        return new Encoded(payload.getBytes(StandardCharsets.UTF_8), JSON);
+    }
+
+    public <T extends SpecificRecord> T decode(ConsumerRecord<?, byte[]> record, Class<T> type) {
+        Header header = record.headers().lastHeader(CONTENT_TYPE_HEADER);
+        String contentType = header == null ? JSON : new String(header.value(), StandardCharsets.UTF_8);
+        return decode(record.value(), contentType, type);
+    }
+
+    public <T extends SpecificRecord> T decode(byte[] body, String contentType, Class<T> type) {
+        if (AVRO.equals(contentType)) {
+            return fromAvro(body, type);
+        }
+        if (contentType == null || contentType.startsWith(JSON)) {
+            return fromJson(body, type);
+        }
+        throw new IllegalArgumentException("Unsupported content-type: " + contentType);
+    }
+
+    public byte[] toAvro(SpecificRecord record) {
+        SpecificDatumWriter<SpecificRecord> writer = writers.computeIfAbsent(record.getSchema(), SpecificDatumWriter::new);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+        try {
+            writer.write(record, encoder);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends SpecificRecord> T fromAvro(byte[] body, Class<T> type) {
+        SpecificDatumReader<T> reader = (SpecificDatumReader<T>) readers.computeIfAbsent(type, SpecificDatumReader::new);
+        try {
+            return reader.read(null, DecoderFactory.get().binaryDecoder(body, null));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Cùng tên field như JSON cũ: {"orderId":1,"productId":2,...}
+    public byte[] toJson(SpecificRecord record) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            for (Schema.Field field : record.getSchema().getFields()) {
+                generator.writeFieldName(field.name());
+                writeJsonValue(generator, record.get(field.pos()));
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends SpecificRecord> T fromJson(byte[] body, Class<T> type) {
+        Schema schema = SpecificData.get().getSchema(type);
+        T result = (T) SpecificData.get().newRecord(null, schema);
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Expected JSON object for " + schema.getName());
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                Schema.Field field = schema.getField(parser.currentName());
+                JsonToken token = parser.nextToken();
+                if (field == null) {
+                    // Field không có trong schema (producer mới hơn) => bỏ qua
+                    parser.skipChildren();
+                    continue;
+                }
+                result.put(field.pos(), readJsonValue(parser, token, field.schema()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+
+    private static void writeJsonValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof Long l) {
+            generator.writeNumber(l);
+        } else if (value instanceof Integer i) {
+            generator.writeNumber(i);
+        } else if (value instanceof Double d) {
+            generator.writeNumber(d);
+        } else if (value instanceof Boolean b) {
+            generator.writeBoolean(b);
+        } else {
+            // String, CharSequence, enum
+            generator.writeString(value.toString());
+        }
+    }
+
+    private static Object readJsonValue(JsonParser parser, JsonToken token, Schema schema) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        Schema type = schema;
+        if (type.getType() == Schema.Type.UNION) {
+            // Chỉ hỗ trợ union ["null", X]
+            type = type.getTypes().stream().filter(s -> s.getType() != Schema.Type.NULL).findFirst().orElseThrow();
+        }
+        return switch (type.getType()) {
+            case LONG -> parser.getLongValue();
+            case INT -> parser.getIntValue();
+            case DOUBLE -> parser.getDoubleValue();
+            case BOOLEAN -> parser.getBooleanValue();
+            case STRING -> parser.getText();
+            case ENUM -> SpecificData.get().createEnum(parser.getText(), type);
+            default -> throw new IllegalArgumentException("Unsupported field type in JSON event: " + type.getType());
+        };
+    }
+}
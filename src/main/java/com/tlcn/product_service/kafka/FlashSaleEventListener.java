@@ -1,31 +1,43 @@
 package com.tlcn.product_service.kafka;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tlcn.product_service.dto.FlashSaleEvent;
 import com.tlcn.product_service.model.Product;
-import com.tlcn.product_service.model.ProductDocument;
-import com.tlcn.product_service.repository.ProductDocumentRepository;
 import com.tlcn.product_service.repository.ProductRepository;
+import com.tlcn.product_service.service.FlashSaleExpiryScheduler;
+import com.tlcn.product_service.service.FlashSaleService;
 import com.tlcn.product_service.service.ProductService; 
 
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.persistence.OptimisticLockException;
 import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
 import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class FlashSaleEventListener {
 
     private final ProductRepository productRepository;
-    private final ProductDocumentRepository productDocumentRepository;
     private final ProductEventProducer productEventProducer; // Cần dùng để gửi Price Update
+    private final FlashSaleService flashSaleService;
+    private final FlashSaleExpiryScheduler flashSaleExpiryScheduler;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
 
     // Đảm bảo bạn đã có 'kafkaListenerContainerFactory' để sử dụng Manual Acknowledge
-    @KafkaListener(topics = "${kafka.topic.flash-sale:flash-sale}", groupId = "${spring.kafka.consumer.group-id}", containerFactory = "kafkaListenerContainerFactory")
+    @KafkaListener(id = "flashSaleListener", topics = "${kafka.topic.flash-sale:flash-sale}", groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = "kafkaListenerContainerFactory", autoStartup = "#{!${product.flash-sale.batch.enabled:false}}")
     @Transactional
     public void handleFlashSaleEvent(FlashSaleEvent event, Acknowledgment ack) {
         log.info("Received Flash Sale Event: Type={}, Product ID={}", event.getEventType(), event.getProductId());
@@ -34,17 +46,14 @@ public class FlashSaleEventListener {
             // Lấy Product từ DB. Sẽ ném ngoại lệ nếu không tìm thấy.
             Product product = productRepository.findById(event.getProductId())
                 .orElseThrow(() -> new ProductService.CustomException("Product not found for Flash Sale event: " + event.getProductId()));
-            
-            // Lấy ProductDocument (Elasticsearch)
-            ProductDocument document = productDocumentRepository.findById(event.getProductId()).orElse(null);
 
             switch (event.getEventType()) {
                 case "START":
-                    handleStartEvent(product, document, event);
+                    handleStartEvent(product, event);
                     break;
                 case "END":
                 case "CANCELLED":
-                    handleEndOrCancelledEvent(product, document, event);
+                    handleEndOrCancelledEvent(product, event);
                     break;
                 default:
                     log.warn("Unknown Flash Sale Event Type: {}", event.getEventType());
@@ -54,8 +63,10 @@ public class FlashSaleEventListener {
             // Acknowledge the message chỉ khi giao dịch thành công.
             ack.acknowledge();
             
-        } catch (OptimisticLockException e) {
+        } catch (ObjectOptimisticLockingFailureException | OptimisticLockException e) {
             // Xử lý xung đột phiên bản (@Version). KHÔNG ack, để Kafka tự động Re-delivery.
+            // Repository Spring Data ném ObjectOptimisticLockingFailureException (đã dịch từ OptimisticLockException)
+            meterRegistry.counter("product.flash-sale.optimistic-lock.conflicts", "path", "listener").increment();
             log.warn("Optimistic Lock conflict occurred for Product ID {}. Transaction will be retried.", event.getProductId());
             throw new RuntimeException("Optimistic Lock conflict: Kafka message re-delivery expected.", e);
         } catch (Exception e) {
@@ -65,61 +76,72 @@ public class FlashSaleEventListener {
         }
     }
 
+    // Batch mode: cả lần poll được áp dụng bằng UPDATE hàng loạt (FlashSaleService.applyBatch).
+    // Sản phẩm vẫn lỗi sau khi thử lại => chỉ redeliver từ record đầu tiên của nó, các record trước đó được commit.
+    @KafkaListener(id = "flashSaleBatchListener", topics = "${kafka.topic.flash-sale:flash-sale}", groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = "flashSaleBatchKafkaListenerContainerFactory", autoStartup = "${product.flash-sale.batch.enabled:false}")
+    public void handleFlashSaleEventBatch(List<ConsumerRecord<String, byte[]>> records) {
+        List<FlashSaleEvent> events = new ArrayList<>(records.size());
+        List<Integer> offsets = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            try {
+                events.add(objectMapper.readValue(records.get(i).value(), FlashSaleEvent.class));
+                offsets.add(i);
+            } catch (Exception e) {
+                log.error("Skipping malformed Flash Sale event: {}", e.getMessage());
+            }
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+
+        FlashSaleService.BatchResult result = flashSaleService.applyBatch(events);
+        result.started().forEach(flashSaleExpiryScheduler::schedule);
+        result.ended().forEach(flashSaleExpiryScheduler::cancel);
+
+        if (!result.failed().isEmpty()) {
+            for (int i = 0; i < events.size(); i++) {
+                if (result.failed().contains(events.get(i).getProductId())) {
+                    throw new BatchListenerFailedException("Failed to process Flash Sale event for Product ID "
+                            + events.get(i).getProductId(), offsets.get(i));
+                }
+            }
+        }
+    }
+
     // --- Xử lý START Event ---
-    private void handleStartEvent(Product product, ProductDocument document, FlashSaleEvent event) {
+    private void handleStartEvent(Product product, FlashSaleEvent event) {
         // Kiểm tra tránh ghi đè nếu sản phẩm đã active FS (trường hợp tin nhắn Kafka bị duplicate)
         if (product.isFlashSale()) {
             log.warn("Product ID {} is already in Flash Sale status. Skipping START update.", product.getId());
             return;
         }
 
-        // 1. Cập nhật PostgreSQL
-        product.setOriginalPriceBeforeFs(product.getPrice()); // **Lưu giá gốc**
-        product.setPrice(event.getSalePrice());             // Đặt giá Flash Sale
-        product.setFlashSale(true);
-        product.setFlashSaleEndTime(event.getEndTime());
-        productRepository.save(product);
+        // Cập nhật PostgreSQL, cache và Elasticsearch (bất đồng bộ, sau khi commit)
+        flashSaleService.startSale(product, event.getSalePrice(), event.getEndTime());
+        flashSaleExpiryScheduler.schedule(product.getId(), event.getEndTime()); // Tự kết thúc đúng endTime nếu END đến trễ
         
         log.info("Product {} price updated to {} (Flash Sale START). Original price saved: {}.", 
                  product.getId(), event.getSalePrice(), product.getOriginalPriceBeforeFs());
-
-        // 2. Cập nhật Elasticsearch (Nếu cần đồng bộ giá cho tìm kiếm)
-        if (document != null) {
-            document.setPrice(event.getSalePrice());
-            productDocumentRepository.save(document);
-        }
     }
 
     // --- Xử lý END/CANCELLED Event ---
-    private void handleEndOrCancelledEvent(Product product, ProductDocument document, FlashSaleEvent event) {
+    private void handleEndOrCancelledEvent(Product product, FlashSaleEvent event) {
         if (!product.isFlashSale()) {
              log.warn("Product ID {} is not currently in Flash Sale status. Skipping {} update.", product.getId(), event.getEventType());
              return;
         }
         
-        // 1. Cập nhật PostgreSQL: Khôi phục
-        Double priceToRestore = product.getOriginalPriceBeforeFs();
-
-        if (priceToRestore == null) {
+        if (product.getOriginalPriceBeforeFs() == null) {
             log.error("CRITICAL ERROR: No original price found for Product ID {} after Flash Sale {}. Restoring default price (if any) or requires manual check.", product.getId(), event.getEventType());
-            // Giữ nguyên giá nếu không thể khôi phục, hoặc đặt về giá mặc định nếu có logic đó.
-            // Ở đây, tôi sẽ giữ nguyên giá hiện tại để tránh lỗi NULL.
-        } else {
-            product.setPrice(priceToRestore); // **Khôi phục giá gốc**
+            // Giữ nguyên giá hiện tại để tránh lỗi NULL.
         }
-        
-        product.setFlashSale(false);
-        product.setOriginalPriceBeforeFs(null); // Xóa giá gốc đã lưu sau khi khôi phục
-        product.setFlashSaleEndTime(null);
-        productRepository.save(product);
+
+        // Khôi phục giá gốc, đóng hot-stock ledger, cập nhật cache và Elasticsearch (bất đồng bộ, sau khi commit)
+        flashSaleService.endSale(product);
+        flashSaleExpiryScheduler.cancel(product.getId());
         
         log.info("Product {} price restored to {} (Flash Sale {}).", 
                  product.getId(), product.getPrice(), event.getEventType());
-
-        // 2. Cập nhật Elasticsearch (Nếu cần đồng bộ giá cho tìm kiếm)
-        if (document != null) {
-            document.setPrice(product.getPrice());
-            productDocumentRepository.save(document);
-        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package com.tlcn.product_service.kafka;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gộp inventory-update khi gửi thẳng lên Kafka (outbox tắt): trong mỗi cửa sổ window-ms chỉ giữ stock mới nhất
+ * của mỗi sản phẩm rồi gửi một event với key = productId. Chỉ một thread flush nên thứ tự theo productId được giữ.
+ * Khi outbox bật, việc gộp do {@link OutboxRelay} làm trên từng batch.
+ */
+@Component
+public class InventoryUpdateCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryUpdateCoalescer.class);
+
+    @Autowired
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${product.inventory-update.coalesce.enabled:false}")
+    private boolean enabled;
+
+    // productId -> payload mới nhất chưa gửi
+    private final ConcurrentHashMap<Long, EventCodec.Encoded> pending = new ConcurrentHashMap<>();
+
+    // Flush theo lịch và flush lúc shutdown không được chạy song song (sẽ đảo thứ tự theo productId)
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private Counter coalescedCounter;
+
+    @PostConstruct
+    public void init() {
+        coalescedCounter = Counter.builder("product.inventory.update.coalesced")
+                .description("Inventory updates superseded by a newer update for the same product before publishing")
+                .tag("path", "direct")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Chờ lần flush theo lịch đang chạy xong rồi gửi nốt phần còn lại trước khi producer bị đóng
+        flush();
+        if (enabled) {
+            kafkaTemplate.flush();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void offer(Long productId, EventCodec.Encoded message) {
+        if (pending.put(productId, message) != null) {
+            coalescedCounter.increment();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${product.inventory-update.coalesce.window-ms:200}")
+    public void flush() {
+        if (!enabled || pending.isEmpty()) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            int sent = 0;
+            for (Long productId : pending.keySet()) {
+                EventCodec.Encoded message = pending.remove(productId);
+                if (message == null) {
+                    continue;
+                }
+                try {
+                    kafkaTemplate.send(ProductEventProducer.record(ProductEventProducer.INVENTORY_UPDATE_TOPIC, String.valueOf(productId), message))
+                            .whenComplete((result, ex) -> {
+                                if (ex != null) {
+                                    retryLater(productId, message, ex);
+                                }
+                            });
+                    sent++;
+                } catch (Exception e) {
+                    retryLater(productId, message, e);
+                }
+            }
+            log.debug("Flushed {} coalesced inventory updates", sent);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Giữ lại nếu chưa có giá trị mới hơn, gửi lại ở cửa sổ sau
+    private void retryLater(Long productId, EventCodec.Encoded message, Throwable e) {
+        pending.putIfAbsent(productId, message);
+        log.error("Failed to send coalesced inventory update for productId={}: {}", productId, e.getMessage());
+    }
+}
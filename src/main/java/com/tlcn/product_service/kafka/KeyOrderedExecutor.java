@@ -0,0 +1,157 @@
+package com.tlcn.product_service.kafka;
+
+import com.tlcn.product_service.config.ThreadFactories;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Xử lý song song các record Kafka nhưng tuần tự theo key (productId), giống parallel consumer theo key:
+ * mỗi key có một hàng đợi riêng, tại một thời điểm chỉ một worker xử lý hàng đợi đó, nên sản phẩm nóng
+ * không chặn các sản phẩm khác. Record được ack khi xử lý xong; container dùng MANUAL + async acks nên
+ * chỉ commit offset liên tục đã hoàn thành. Số record đang xử lý bị giới hạn bởi max-in-flight (backpressure).
+ * Khi tắt, record được xử lý ngay trên consumer thread như trước.
+ */
+@Component
+public class KeyOrderedExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyOrderedExecutor.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${product.kafka.key-ordered.enabled:false}")
+    private boolean enabled;
+
+    @Value("${product.kafka.key-ordered.pool-size:16}")
+    private int poolSize;
+
+    @Value("${product.kafka.key-ordered.max-in-flight:1000}")
+    private int maxInFlight;
+
+    @Value("${product.kafka.key-ordered.drain-timeout:10s}")
+    private Duration drainTimeout;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    // key -> các task chờ xử lý; key có mặt trong map nghĩa là đang có worker drain hàng đợi của nó
+    private final ConcurrentHashMap<Object, ArrayDeque<Runnable>> queues = new ConcurrentHashMap<>();
+
+    private Semaphore inFlight;
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void start() {
+        inFlight = new Semaphore(maxInFlight);
+        meterRegistry.gauge("product.kafka.key-ordered.in-flight", List.of(), this, KeyOrderedExecutor::inFlightCount);
+        meterRegistry.gauge("product.kafka.key-ordered.active-keys", List.of(), queues, ConcurrentHashMap::size);
+        if (enabled) {
+            executor = Executors.newFixedThreadPool(poolSize, ThreadFactories.named("kafka-key-ordered", virtualThreads));
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (executor != null) {
+            awaitIdle();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Chạy task theo thứ tự submit của cùng key rồi ack record. Task tự xử lý lỗi nghiệp vụ;
+     * exception lọt ra ngoài chỉ được log, record vẫn được ack giống listener tuần tự.
+     */
+    public void submit(Object key, Runnable task, Acknowledgment ack) {
+        if (executor == null) {
+            runAndAck(task, ack);
+            return;
+        }
+        try {
+            // Chặn consumer thread khi quá nhiều record chưa xong
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for key-ordered worker", e);
+        }
+        Runnable work = () -> {
+            try {
+                runAndAck(task, ack);
+            } finally {
+                inFlight.release();
+            }
+        };
+        boolean[] first = {false};
+        queues.compute(key, (k, queue) -> {
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                first[0] = true;
+            }
+            queue.add(work);
+            return queue;
+        });
+        if (first[0]) {
+            executor.execute(() -> drain(key));
+        }
+    }
+
+    /**
+     * Chờ mọi record đã nhận xử lý xong (dùng trước khi commit lúc rebalance / shutdown).
+     */
+    public boolean awaitIdle() throws InterruptedException {
+        if (executor == null) {
+            return true;
+        }
+        if (inFlight.tryAcquire(maxInFlight, drainTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            inFlight.release(maxInFlight);
+            return true;
+        }
+        log.warn("Key-ordered executor still has {} records in flight after {}", inFlightCount(), drainTimeout);
+        return false;
+    }
+
+    public int inFlightCount() {
+        return inFlight == null || executor == null ? 0 : maxInFlight - inFlight.availablePermits();
+    }
+
+    private void drain(Object key) {
+        while (true) {
+            Runnable[] next = new Runnable[1];
+            // Lấy task kế tiếp; hàng đợi rỗng thì xóa key (atomic với submit) để lần submit sau khởi động worker mới
+            queues.compute(key, (k, queue) -> {
+                next[0] = queue == null ? null : queue.poll();
+                return next[0] == null ? null : queue;
+            });
+            if (next[0] == null) {
+                return;
+            }
+            next[0].run();
+        }
+    }
+
+    private static void runAndAck(Runnable task, Acknowledgment ack) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            log.error("Unhandled error in Kafka record handler: {}", e.getMessage(), e);
+        } finally {
+            ack.acknowledge();
+        }
+    }
+}
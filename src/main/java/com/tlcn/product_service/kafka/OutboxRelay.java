@@ -0,0 +1,153 @@
+package com.tlcn.product_service.kafka;
+
+import com.tlcn.product_service.model.OutboxEvent;
+import com.tlcn.product_service.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Đọc outbox_event theo batch (theo thứ tự insert_order), gửi lên Kafka với key = productId và chỉ xóa các row
+ * sau khi Kafka đã ack toàn bộ batch => at-least-once, giữ thứ tự theo productId.
+ * Khi bật coalesce, các inventory-update cùng productId trong một batch chỉ gửi event mới nhất
+ * (payload là stock tuyệt đối nên event cũ hơn không còn giá trị), các row còn lại vẫn bị xóa.
+ */
+@Component
+public class OutboxRelay {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private static final long RELAY_LOCK_KEY = 0x5052_4F44_4F42L; // "PRODOB"
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${product.outbox.enabled:true}")
+    private boolean enabled;
+
+    @Value("${product.outbox.batch-size:500}")
+    private int batchSize;
+
+    @Value("${product.outbox.send-timeout-ms:30000}")
+    private long sendTimeoutMs;
+
+    @Value("${product.inventory-update.coalesce.enabled:false}")
+    private boolean coalesceInventoryUpdates;
+
+    private final AtomicLong lagMillis = new AtomicLong();
+
+    private Counter relayedCounter;
+
+    private Counter coalescedCounter;
+
+    private Timer relayTimer;
+
+    @PostConstruct
+    public void initMetrics() {
+        meterRegistry.gauge("product.outbox.lag", List.of(), lagMillis, v -> v.get() / 1000.0);
+        relayedCounter = Counter.builder("product.outbox.relayed")
+                .description("Number of outbox events published to Kafka")
+                .register(meterRegistry);
+        coalescedCounter = Counter.builder("product.inventory.update.coalesced")
+                .description("Inventory updates superseded by a newer update for the same product before publishing")
+                .tag("path", "outbox")
+                .register(meterRegistry);
+        relayTimer = Timer.builder("product.outbox.relay.duration")
+                .description("Time to publish and delete one outbox batch")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${product.outbox.poll-interval-ms:100}")
+    public void relay() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            // Khi batch đầy thì còn event tồn, chạy tiếp ngay thay vì chờ lần poll sau
+            int relayed;
+            do {
+                relayed = relayTimer.record(() -> new TransactionTemplate(transactionManager).execute(status -> relayBatch()));
+            } while (relayed >= batchSize);
+        } catch (Exception e) {
+            log.error("Outbox relay failed, batch will be retried: {}", e.getMessage());
+        }
+    }
+
+    private int relayBatch() {
+        if (!outboxEventRepository.tryAdvisoryXactLock(RELAY_LOCK_KEY)) {
+            return 0;
+        }
+        List<OutboxEvent> events = outboxEventRepository.lockNextBatch(batchSize);
+        if (events.isEmpty()) {
+            lagMillis.set(0);
+            return 0;
+        }
+        lagMillis.set(Duration.between(events.get(0).getCreatedAt(), Instant.now()).toMillis());
+
+        List<OutboxEvent> toSend = coalesceInventoryUpdates ? coalesce(events) : events;
+        CompletableFuture<?>[] futures = toSend.stream()
+                .map(event -> kafkaTemplate.send(ProductEventProducer.record(event.getTopic(), event.getMessageKey(),
+                        EventCodec.fromOutboxPayload(event.getPayload(), event.getContentType()))))
+                .toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(futures).get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Rollback => các row vẫn còn trong outbox và được gửi lại ở lần sau
+            throw new IllegalStateException("Failed to publish outbox batch: " + e.getMessage(), e);
+        }
+
+        outboxEventRepository.deleteAllByIdInBatch(events.stream().map(OutboxEvent::getId).toList());
+        relayedCounter.increment(events.size());
+        log.debug("Relayed {} outbox events ({} sent)", events.size(), toSend.size());
+        return events.size();
+    }
+
+    // Giữ thứ tự gốc, bỏ các inventory-update đã có event mới hơn cùng key trong batch
+    private List<OutboxEvent> coalesce(List<OutboxEvent> events) {
+        Map<String, Long> latestByKey = new HashMap<>();
+        for (OutboxEvent event : events) {
+            if (ProductEventProducer.INVENTORY_UPDATE_TOPIC.equals(event.getTopic()) && event.getMessageKey() != null) {
+                latestByKey.put(event.getMessageKey(), event.getId());
+            }
+        }
+        List<OutboxEvent> result = new ArrayList<>(events.size());
+        for (OutboxEvent event : events) {
+            Long latestId = ProductEventProducer.INVENTORY_UPDATE_TOPIC.equals(event.getTopic()) && event.getMessageKey() != null
+                    ? latestByKey.get(event.getMessageKey()) : null;
+            if (latestId == null || latestId.equals(event.getId())) {
+                result.add(event);
+            }
+        }
+        coalescedCounter.increment(events.size() - result.size());
+        return result;
+    }
+}
@@ -1,13 +1,23 @@
 package com.tlcn.product_service.kafka;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tlcn.product_service.avro.StockReservationRequestEvent;
+import com.tlcn.product_service.avro.StockRollbackRequestEvent;
+import com.tlcn.product_service.dto.StockReservationRequest;
 import com.tlcn.product_service.service.ProductService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @Component
@@ -19,34 +29,111 @@ public class ProductEventConsumer {
     private ProductService productService;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private EventCodec eventCodec;
 
-    @KafkaListener(topics = "stock-reservation-request", groupId = "${spring.kafka.consumer.group-id}")
-    public void consumeStockReservationRequest(String message) {
+    @Autowired
+    private KeyOrderedExecutor keyOrderedExecutor;
+
+    // Ack mode / concurrency theo listener: product.kafka.listeners.stockReservationListener.*
+    @KafkaListener(id = "stockReservationListener", topics = "stock-reservation-request",
+            groupId = "${spring.kafka.consumer.group-id}",
+            autoStartup = "#{!${product.reservation.batch.enabled:false}}")
+    public void consumeStockReservationRequest(ConsumerRecord<String, byte[]> record, Acknowledgment ack) {
+        StockReservationRequestEvent event;
         try {
-            Map<String, Object> data = objectMapper.readValue(message, Map.class);
-            Long orderId = ((Number) data.get("orderId")).longValue();
-            Long productId = ((Number) data.get("productId")).longValue();
-            int quantity = ((Number) data.get("quantity")).intValue();
+            // JSON hoặc Avro theo header content-type
+            event = eventCodec.decode(record, StockReservationRequestEvent.class);
+        } catch (Exception e) {
+            log.error("Failed to parse stock reservation request: {}", e.getMessage());
+            ack.acknowledge();
+            return;
+        }
+        // Song song giữa các sản phẩm, tuần tự trong cùng một productId
+        keyOrderedExecutor.submit(event.getProductId(), () -> handleStockReservation(event), ack);
+    }
 
-            log.info("Received stock-reservation-request: orderId={}, productId={}, quantity={}", orderId, productId, quantity);
-            productService.reserveStock(orderId, productId, quantity);
+    private void handleStockReservation(StockReservationRequestEvent event) {
+        try {
+            log.info("Received stock-reservation-request: orderId={}, productId={}, quantity={}",
+                    event.getOrderId(), event.getProductId(), event.getQuantity());
+            productService.reserveStock(event.getOrderId(), event.getProductId(), event.getQuantity());
         } catch (Exception e) {
             log.error("Failed to process stock reservation request: {}", e.getMessage());
         }
     }
 
-    @KafkaListener(topics = "stock-rollback-request", groupId = "${spring.kafka.consumer.group-id}")
-    public void consumeStockRollbackRequest(String message) {
+    // Batch mode: gom các record của một lần poll theo productId, mỗi sản phẩm xử lý trong một transaction
+    @KafkaListener(id = "stockReservationBatchListener", topics = "stock-reservation-request",
+            groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = "batchKafkaListenerContainerFactory",
+            autoStartup = "${product.reservation.batch.enabled:false}")
+    public void consumeStockReservationRequestBatch(List<ConsumerRecord<String, byte[]>> records) {
+        long start = System.nanoTime();
+        Map<Long, List<StockReservationRequest>> requestsByProduct = new LinkedHashMap<>();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            try {
+                StockReservationRequestEvent event = eventCodec.decode(record, StockReservationRequestEvent.class);
+                StockReservationRequest request = new StockReservationRequest(
+                        event.getOrderId(), event.getProductId(), event.getQuantity());
+                requestsByProduct.computeIfAbsent(request.getProductId(), id -> new ArrayList<>()).add(request);
+            } catch (Exception e) {
+                log.error("Failed to parse stock reservation request: {}", e.getMessage());
+            }
+        }
+
+        requestsByProduct.forEach((productId, requests) -> {
+            try {
+                productService.reserveStockBatch(productId, requests);
+            } catch (RuntimeException e) {
+                if (isTransient(e)) {
+                    // Deadlock / mất kết nối: để error handler của container poll lại cả batch, ledger chặn trừ kho lần hai
+                    log.warn("Transient failure for stock reservation batch productId={}, retrying batch: {}", productId, e.getMessage());
+                    throw e;
+                }
+                // Transaction của cả nhóm đã rollback (kể cả ledger claim và phản hồi) => trả lời lại từng order
+                log.error("Failed to process stock reservation batch for productId={}, answering {} orders from ledger: {}",
+                        productId, requests.size(), e.getMessage());
+                productService.answerFailedReservationBatch(productId, requests);
+            }
+        });
+
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        log.info("Processed stock-reservation batch: records={}, products={}, elapsedMs={}, recordsPerSec={}",
+                records.size(), requestsByProduct.size(), elapsedMs,
+                elapsedMs == 0 ? records.size() * 1000L : records.size() * 1000L / elapsedMs);
+    }
+
+    private static boolean isTransient(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof TransientDataAccessException || t instanceof RecoverableDataAccessException
+                    || t instanceof CannotCreateTransactionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @KafkaListener(id = "stockRollbackListener", topics = "stock-rollback-request", groupId = "${spring.kafka.consumer.group-id}")
+    public void consumeStockRollbackRequest(ConsumerRecord<String, byte[]> record, Acknowledgment ack) {
+        StockRollbackRequestEvent event;
         try {
-            Map<String, Object> data = objectMapper.readValue(message, Map.class);
-            Long productId = ((Number) data.get("productId")).longValue();
-            int quantity = ((Number) data.get("quantity")).intValue();
+            event = eventCodec.decode(record, StockRollbackRequestEvent.class);
+        } catch (Exception e) {
+            log.error("Failed to parse stock rollback request: {}", e.getMessage());
+            ack.acknowledge();
+            return;
+        }
+        // Dùng chung executor với reservation => rollback và reservation của cùng sản phẩm không chạy chồng nhau
+        keyOrderedExecutor.submit(event.getProductId(), () -> handleStockRollback(event), ack);
+    }
 
-            log.info("Received stock-rollback-request: productId={}, quantity={}", productId, quantity);
-            productService.rollbackStock(productId, quantity);
+    private void handleStockRollback(StockRollbackRequestEvent event) {
+        try {
+            log.info("Received stock-rollback-request: orderId={}, productId={}, quantity={}",
+                    event.getOrderId(), event.getProductId(), event.getQuantity());
+            productService.rollbackStock(event.getOrderId(), event.getProductId(), event.getQuantity());
         } catch (Exception e) {
             log.error("Failed to process stock rollback request: {}", e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
@@ -1,14 +1,25 @@
 package com.tlcn.product_service.kafka;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tlcn.product_service.avro.InventoryUpdateEvent;
+import com.tlcn.product_service.avro.ReservationStatus;
+import com.tlcn.product_service.avro.StockReservationResponseEvent;
+import com.tlcn.product_service.kafka.EventCodec.Encoded;
+import com.tlcn.product_service.model.OutboxEvent;
+import com.tlcn.product_service.repository.OutboxEventRepository;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.HashMap;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 @Component
@@ -16,22 +27,37 @@ public class ProductEventProducer {
 
     private static final Logger log = LoggerFactory.getLogger(ProductEventProducer.class);
 
+    // Topic compacted, key = productId: giữ stock mới nhất của mỗi sản phẩm
+    public static final String INVENTORY_UPDATE_TOPIC = "inventory-update";
+
+    @Autowired
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+
+    @Autowired
+    private EventCodec eventCodec;
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
     @Autowired
-    private KafkaTemplate<String, String> kafkaTemplate;
+    private PlatformTransactionManager transactionManager;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private InventoryUpdateCoalescer inventoryUpdateCoalescer;
+
+    @Value("${product.outbox.enabled:true}")
+    private boolean outboxEnabled;
 
     public void sendStockReservationResponse(Long orderId, Long productId, int newStock, String status) {
-        Map<String, Object> data = new HashMap<>();
-        data.put("orderId", orderId);
-        data.put("productId", productId);
-        data.put("newStock", newStock);
-        data.put("status", status); // SUCCESS hoặc FAILED
         try {
-            String message = objectMapper.writeValueAsString(data);
-            // Sử dụng sendAndForget, log lỗi nếu thất bại.
-            kafkaTemplate.send(new ProducerRecord<>("stock-reservation-response", message));
+            Encoded message = eventCodec.encode(StockReservationResponseEvent.newBuilder()
+                    .setOrderId(orderId)
+                    .setProductId(productId)
+                    .setNewStock(newStock)
+                    .setStatus(ReservationStatus.valueOf(status)) // SUCCESS hoặc FAILED
+                    .build());
+            // Phản hồi FAILED thường đi kèm exception làm rollback transaction hiện tại => ghi outbox trong transaction riêng
+            publish("stock-reservation-response", String.valueOf(productId), message, "FAILED".equals(status));
             log.info("Sent stock-reservation-response: orderId={}, status={}", orderId, status);
         } catch (Exception e) {
             log.error("Failed to send stock reservation response for orderId={}: {}", orderId, e.getMessage());
@@ -39,17 +65,87 @@ public class ProductEventProducer {
     }
 
     public void sendInventoryUpdate(Long productId, int newStock, String source) {
-        Map<String, Object> data = new HashMap<>();
-        data.put("productId", productId);
-        data.put("newStock", newStock);
-        data.put("source", source);
         try {
-            String message = objectMapper.writeValueAsString(data);
-            // Sử dụng sendAndForget, log lỗi nếu thất bại.
-            kafkaTemplate.send(new ProducerRecord<>("inventory-update", message));
+            Encoded message = eventCodec.encode(inventoryUpdate(productId, newStock, source));
+            if (!outboxEnabled && inventoryUpdateCoalescer.isEnabled()) {
+                inventoryUpdateCoalescer.offer(productId, message);
+            } else {
+                publish(INVENTORY_UPDATE_TOPIC, String.valueOf(productId), message, false);
+            }
             log.info("Sent inventory-update: productId={}, newStock={}, source={}", productId, newStock, source);
         } catch (Exception e) {
             log.error("Failed to send inventory update for productId={}: {}", productId, e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * inventory-update cho nhiều sản phẩm (bulk import). Cố ý không gộp thành một event cho cả chunk:
+     * mỗi sản phẩm vẫn là một event riêng với key = productId để topic compacted giữ đúng snapshot
+     * và consumer không phải đổi format. Outbox ghi cả lô bằng JDBC batch (id lấy theo khối từ
+     * outbox_event_seq, mỗi batch tối đa hibernate.jdbc.batch_size câu INSERT).
+     */
+    public void sendInventoryUpdateBatch(String keycloakId, Map<Long, Integer> stockByProduct, String source) {
+        if (stockByProduct.isEmpty()) {
+            return;
+        }
+        if (!outboxEnabled) {
+            stockByProduct.forEach((productId, newStock) -> sendInventoryUpdate(productId, newStock, source));
+            return;
+        }
+        try {
+            List<OutboxEvent> events = new ArrayList<>(stockByProduct.size());
+            Instant now = Instant.now();
+            for (Map.Entry<Long, Integer> entry : stockByProduct.entrySet()) {
+                events.add(outboxEvent(INVENTORY_UPDATE_TOPIC, String.valueOf(entry.getKey()),
+                        eventCodec.encode(inventoryUpdate(entry.getKey(), entry.getValue(), source)), now));
+            }
+            outboxEventRepository.saveAll(events);
+            log.info("Sent inventory-update batch: keycloakId={}, products={}, source={}", keycloakId, events.size(), source);
+        } catch (Exception e) {
+            log.error("Failed to send inventory update batch for keycloakId={}: {}", keycloakId, e.getMessage());
+        }
+    }
+
+    /**
+     * Outbox bật: ghi event vào bảng outbox_event trong transaction hiện tại (OutboxRelay gửi sau khi commit).
+     * Outbox tắt: gửi thẳng lên Kafka như trước (sendAndForget).
+     */
+    private void publish(String topic, String key, Encoded message, boolean independentOfCurrentTransaction) {
+        if (!outboxEnabled) {
+            kafkaTemplate.send(record(topic, key, message));
+            return;
+        }
+        OutboxEvent event = outboxEvent(topic, key, message, Instant.now());
+        if (independentOfCurrentTransaction) {
+            TransactionTemplate requiresNew = new TransactionTemplate(transactionManager);
+            requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            requiresNew.executeWithoutResult(status -> outboxEventRepository.save(event));
+        } else {
+            outboxEventRepository.save(event);
+        }
+    }
+
+    static ProducerRecord<String, byte[]> record(String topic, String key, Encoded message) {
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(topic, key, message.body());
+        record.headers().add(message.header());
+        return record;
+    }
+
+    private static OutboxEvent outboxEvent(String topic, String key, Encoded message, Instant createdAt) {
+        return OutboxEvent.builder()
+                .topic(topic)
+                .messageKey(key)
+                .payload(EventCodec.toOutboxPayload(message))
+                .contentType(message.contentType())
+                .createdAt(createdAt)
+                .build();
+    }
+
+    private static InventoryUpdateEvent inventoryUpdate(Long productId, int newStock, String source) {
+        return InventoryUpdateEvent.newBuilder()
+                .setProductId(productId)
+                .setNewStock(newStock)
+                .setSource(source)
+                .build();
+    }
+}
@@ -0,0 +1,6 @@
+package com.tlcn.product_service.model;
+
+// Trạng thái ảnh sản phẩm trong pipeline upload bất đồng bộ
+public enum ImageStatus {
+    PENDING, READY, FAILED
+}
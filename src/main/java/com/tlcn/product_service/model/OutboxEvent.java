@@ -0,0 +1,55 @@
+package com.tlcn.product_service.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// Event Kafka được ghi cùng transaction với thay đổi Product, OutboxRelay sẽ gửi đi sau khi commit
+@Entity
+@Table(name = "outbox_event", indexes = @Index(name = "idx_outbox_event_insert_order", columnList = "insert_order"))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OutboxEvent {
+
+    // Sequence + pooled optimizer như Product: nhiều event trong một transaction được INSERT theo một JDBC batch
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "outbox_event_seq")
+    @SequenceGenerator(name = "outbox_event_seq", sequenceName = "outbox_event_seq", allocationSize = 50)
+    private Long id;
+
+    // Thứ tự relay: id lấy theo khối 50 nên giữa các instance không còn tăng theo thời điểm ghi,
+    // cột này do database đánh số lúc INSERT nên vẫn giữ thứ tự event theo productId
+    @Column(name = "insert_order", insertable = false, updatable = false,
+            columnDefinition = "bigint generated by default as identity")
+    private Long insertOrder;
+
+    @Column(nullable = false)
+    private String topic;
+
+    private String messageKey;
+
+    // JSON, hoặc base64 của bản Avro khi contentType = avro/binary
+    @Column(nullable = false, columnDefinition = "text")
+    private String payload;
+
+    // Header content-type khi gửi; null => application/json (row tạo trước khi có cột này)
+    private String contentType;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+}
@@ -4,9 +4,14 @@ import java.time.Instant;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
 import jakarta.persistence.Version;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -15,6 +20,7 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 @Entity
+@Table(indexes = @Index(name = "idx_product_vendor_deleted_id", columnList = "keycloakId, isDeleted, id"))
 @Getter
 @Setter
 @NoArgsConstructor
@@ -22,8 +28,10 @@ import lombok.Setter;
 @Builder
 public class Product {
 
+    // Sequence + pooled optimizer (allocationSize > 1) để Hibernate batch được các câu INSERT
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "product_seq")
+    @SequenceGenerator(name = "product_seq", sequenceName = "product_seq", allocationSize = 50)
     private Long id;
 
     private String name;
@@ -46,4 +54,21 @@ public class Product {
     private boolean isFlashSale = false; 
 
     private Instant flashSaleEndTime;
+
+    // true khi tồn kho đang được quản lý bởi HotStockLedger trên Redis (Flash Sale hot-stock mode)
+    @Column(nullable = false, columnDefinition = "boolean default false")
+    private boolean isHotStock;
+
+    // Seq của lần flush hot-stock cuối cùng đã ghi xuống DB, dùng để flush lại không bị cộng/trừ hai lần
+    private Long hotStockFlushSeq;
+
+    // Trạng thái upload ảnh bất đồng bộ (null: sản phẩm không có ảnh mới nào đang xử lý)
+    @Enumerated(EnumType.STRING)
+    private ImageStatus imageStatus;
+
+    // Id của lần upload ảnh gần nhất; ProductImagePipeline chỉ ghi imageUrl khi id này còn khớp
+    private String imageUploadId;
+
+    // Thời điểm chuyển sang PENDING (hoặc được sweep nhận xử lý lại); PENDING quá lâu => upload bị bỏ dở
+    private Instant imageStatusAt;
 }
\ No newline at end of file
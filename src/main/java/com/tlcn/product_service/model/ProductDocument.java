@@ -8,6 +8,8 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.InnerField;
+import org.springframework.data.elasticsearch.annotations.MultiField;
 
 @Document(indexName = "products")
 @Getter
@@ -25,7 +27,10 @@ public class ProductDocument {
     @Field(type = FieldType.Text, analyzer = "standard")
     private String description;
 
-    @Field(type = FieldType.Text, analyzer = "standard")
+    // category.keyword dùng cho filter/aggregation chính xác
+    @MultiField(
+            mainField = @Field(type = FieldType.Text, analyzer = "standard"),
+            otherFields = { @InnerField(suffix = "keyword", type = FieldType.Keyword) })
     private String category;
 
     @Field(type = FieldType.Double)
@@ -37,7 +42,10 @@ public class ProductDocument {
     @Field(type = FieldType.Text)
     private String imageUrl;
 
-    @Field(type = FieldType.Text) 
+    @Field(type = FieldType.Keyword)
+    private ImageStatus imageStatus;
+
+    @Field(type = FieldType.Keyword)
     private String keycloakId;
 
     @Field(type = FieldType.Boolean)
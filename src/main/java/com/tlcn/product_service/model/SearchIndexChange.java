@@ -0,0 +1,51 @@
+package com.tlcn.product_service.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// Thay đổi cần index lại, ghi cùng transaction với thay đổi Product; indexedAt = null nghĩa là chưa vào Elasticsearch
+@Entity
+@Table(name = "search_index_change", indexes = {
+        @Index(name = "idx_search_index_change_pending", columnList = "indexed_at, id"),
+        @Index(name = "idx_search_index_change_created", columnList = "created_at")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SearchIndexChange {
+
+    // Pooled sequence để các thay đổi của một transaction được INSERT theo batch
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "search_index_change_seq")
+    @SequenceGenerator(name = "search_index_change_seq", sequenceName = "search_index_change_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "product_id", nullable = false)
+    private Long productId;
+
+    // false => chỉ stock/giá/Flash Sale thay đổi (partial update)
+    // "full" là từ khóa SQL (FULL JOIN) nên không dùng làm tên cột
+    @Column(name = "full_index", nullable = false)
+    private boolean full;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @Column(name = "indexed_at")
+    private Instant indexedAt;
+}
@@ -0,0 +1,6 @@
+package com.tlcn.product_service.model;
+
+// Trạng thái của một (orderId, productId) trong ledger giữ hàng
+public enum StockReservationStatus {
+    RESERVED, ROLLED_BACK
+}
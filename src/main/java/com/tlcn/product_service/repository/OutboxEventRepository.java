@@ -0,0 +1,20 @@
+package com.tlcn.product_service.repository;
+
+import com.tlcn.product_service.model.OutboxEvent;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    // Lấy batch cũ nhất và khóa lại; các row đang bị relay khác khóa sẽ được bỏ qua
+    @Query(value = "SELECT * FROM outbox_event ORDER BY insert_order LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<OutboxEvent> lockNextBatch(@Param("limit") int limit);
+
+    // Chỉ một relay trong cluster chạy tại một thời điểm để giữ thứ tự theo productId
+    @Query(value = "SELECT pg_try_advisory_xact_lock(:key)", nativeQuery = true)
+    boolean tryAdvisoryXactLock(@Param("key") long key);
+}
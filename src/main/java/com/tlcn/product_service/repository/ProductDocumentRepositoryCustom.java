@@ -0,0 +1,14 @@
+package com.tlcn.product_service.repository;
+
+import java.util.Map;
+import java.util.Set;
+
+public interface ProductDocumentRepositoryCustom {
+
+        /**
+         * Gửi partial update (chỉ các field thay đổi) cho nhiều document trong một request _bulk.
+         *
+         * @return id các document cập nhật thất bại (ví dụ chưa tồn tại trong index)
+         */
+        Set<Long> partialUpdate(Map<Long, Map<String, Object>> fieldsById);
+}
@@ -0,0 +1,43 @@
+package com.tlcn.product_service.repository;
+
+import com.tlcn.product_service.model.ProductDocument;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.data.elasticsearch.BulkFailureException;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.query.UpdateQuery;
+
+public class ProductDocumentRepositoryCustomImpl implements ProductDocumentRepositoryCustom {
+
+        private final ElasticsearchOperations elasticsearchOperations;
+
+        public ProductDocumentRepositoryCustomImpl(ElasticsearchOperations elasticsearchOperations) {
+                this.elasticsearchOperations = elasticsearchOperations;
+        }
+
+        @Override
+        public Set<Long> partialUpdate(Map<Long, Map<String, Object>> fieldsById) {
+                if (fieldsById.isEmpty()) {
+                        return Collections.emptySet();
+                }
+                List<UpdateQuery> queries = fieldsById.entrySet().stream()
+                        .map(entry -> UpdateQuery.builder(String.valueOf(entry.getKey()))
+                                .withDocument(Document.from(entry.getValue()))
+                                .build())
+                        .toList();
+                try {
+                        elasticsearchOperations.bulkUpdate(queries, ProductDocument.class);
+                        return Collections.emptySet();
+                } catch (BulkFailureException e) {
+                        return e.getFailedDocuments().keySet().stream()
+                                .map(Long::valueOf)
+                                .collect(Collectors.toSet());
+                }
+        }
+}
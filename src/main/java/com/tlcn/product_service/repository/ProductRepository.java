@@ -1,18 +1,158 @@
 package com.tlcn.product_service.repository;
 
+import com.tlcn.product_service.model.ImageStatus;
 import com.tlcn.product_service.model.Product;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import jakarta.persistence.QueryHint;
+
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
 public interface ProductRepository extends JpaRepository<Product, Long> {
     Page<Product> findByKeycloakIdAndIsDeletedFalse(String keycloakId, Pageable pageable);
     Optional<Product> findByIdAndIsDeletedFalse(Long id);
     Page<Product> findByKeycloakIdAndIsDeletedTrue(String keycloakId, Pageable pageable);
     List<Product> findByIsDeletedFalse();
-}
\ No newline at end of file
+
+    // Stream cho export: JDBC cursor với fetch size, caller phải mở transaction read-only và detach entity sau khi ghi
+    @QueryHints({
+            @QueryHint(name = "org.hibernate.fetchSize", value = "1000"),
+            @QueryHint(name = "org.hibernate.readOnly", value = "true"),
+            @QueryHint(name = "org.hibernate.cacheable", value = "false")
+    })
+    @Query("SELECT p FROM Product p WHERE p.isDeleted = false ORDER BY p.id")
+    Stream<Product> streamAllActive();
+
+    @QueryHints({
+            @QueryHint(name = "org.hibernate.fetchSize", value = "1000"),
+            @QueryHint(name = "org.hibernate.readOnly", value = "true"),
+            @QueryHint(name = "org.hibernate.cacheable", value = "false")
+    })
+    @Query("SELECT p FROM Product p WHERE p.keycloakId = :keycloakId AND p.isDeleted = false ORDER BY p.id")
+    Stream<Product> streamActiveByKeycloakId(@Param("keycloakId") String keycloakId);
+
+    // Ghi kết quả upload ảnh, chỉ áp dụng nếu không có lần upload nào mới hơn
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.imageUrl = :imageUrl, p.imageStatus = :status, p.version = p.version + 1 " +
+            "WHERE p.id = :id AND p.imageUploadId = :uploadId")
+    int completeImageUpload(@Param("id") Long id, @Param("uploadId") String uploadId,
+                            @Param("imageUrl") String imageUrl, @Param("status") ImageStatus status);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.imageStatus = :status, p.version = p.version + 1 " +
+            "WHERE p.id = :id AND p.imageUploadId = :uploadId")
+    int markImageUploadFailed(@Param("id") Long id, @Param("uploadId") String uploadId, @Param("status") ImageStatus status);
+
+    // Upload ảnh ở trạng thái PENDING quá lâu (instance xử lý đã chết trước khi upload xong)
+    @Query("SELECT p FROM Product p WHERE p.imageStatus = :status " +
+            "AND (p.imageStatusAt IS NULL OR p.imageStatusAt < :cutoff) ORDER BY p.id")
+    List<Product> findStaleImageUploads(@Param("status") ImageStatus status, @Param("cutoff") Instant cutoff, Pageable page);
+
+    // Nhận xử lý lại một upload bị bỏ dở; chỉ một instance nhận được 1
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.imageStatusAt = :now " +
+            "WHERE p.id = :id AND p.imageUploadId = :uploadId AND p.imageStatus = :status " +
+            "AND (p.imageStatusAt IS NULL OR p.imageStatusAt < :cutoff)")
+    int claimStaleImageUpload(@Param("id") Long id, @Param("uploadId") String uploadId, @Param("status") ImageStatus status,
+                              @Param("cutoff") Instant cutoff, @Param("now") Instant now);
+
+    // Chia id space thành các range cho reindex song song
+    @Query("SELECT MIN(p.id) FROM Product p WHERE p.isDeleted = false")
+    Long findMinActiveId();
+
+    @Query("SELECT MAX(p.id) FROM Product p WHERE p.isDeleted = false")
+    Long findMaxActiveId();
+
+    @QueryHints({
+            @QueryHint(name = "org.hibernate.fetchSize", value = "1000"),
+            @QueryHint(name = "org.hibernate.readOnly", value = "true"),
+            @QueryHint(name = "org.hibernate.cacheable", value = "false")
+    })
+    @Query("SELECT p FROM Product p WHERE p.isDeleted = false AND p.id >= :fromId AND p.id < :toId ORDER BY p.id")
+    Stream<Product> streamActiveByIdRange(@Param("fromId") Long fromId, @Param("toId") Long toId);
+
+    // Keyset pagination theo id giảm dần (dùng index keycloakId, isDeleted, id), không cần COUNT(*)
+    List<Product> findByKeycloakIdAndIsDeletedOrderByIdDesc(String keycloakId, boolean isDeleted, Limit limit);
+    List<Product> findByKeycloakIdAndIsDeletedAndIdLessThanOrderByIdDesc(String keycloakId, boolean isDeleted, Long id, Limit limit);
+
+    // Trừ kho nguyên tử: chỉ cập nhật khi đủ hàng. Tăng version để các writer dùng @Version phát hiện thay đổi.
+    // Sản phẩm đang ở hot-stock mode chỉ được trừ kho qua HotStockLedger.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.stock = p.stock - :quantity, p.version = p.version + 1 " +
+            "WHERE p.id = :id AND p.stock >= :quantity AND p.isHotStock = false")
+    int decrementStockIfAvailable(@Param("id") Long id, @Param("quantity") int quantity);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.stock = p.stock + :quantity, p.version = p.version + 1 WHERE p.id = :id")
+    int incrementStock(@Param("id") Long id, @Param("quantity") int quantity);
+
+    // Ghi delta hot-stock xuống DB. Điều kiện seq đảm bảo mỗi lần flush chỉ được áp dụng đúng một lần.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.stock = p.stock - :reserved + :released, p.hotStockFlushSeq = :seq, " +
+            "p.version = p.version + 1 " +
+            "WHERE p.id = :id AND (p.hotStockFlushSeq IS NULL OR p.hotStockFlushSeq < :seq)")
+    int applyHotStockFlush(@Param("id") Long id, @Param("reserved") int reserved,
+                           @Param("released") int released, @Param("seq") long seq);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.isHotStock = false, p.version = p.version + 1 WHERE p.id = :id")
+    int releaseHotStock(@Param("id") Long id);
+
+    @Query("SELECT p.stock FROM Product p WHERE p.id = :id")
+    Optional<Integer> findStockById(@Param("id") Long id);
+
+    // Flash Sale đang chạy có thời điểm kết thúc, dùng để nạp FlashSaleExpiryScheduler
+    interface FlashSaleExpiryView {
+        Long getId();
+        Instant getFlashSaleEndTime();
+    }
+
+    List<FlashSaleExpiryView> findByIsFlashSaleTrueAndFlashSaleEndTimeIsNotNull();
+
+    @Query("SELECT p.id FROM Product p WHERE p.id IN :ids AND p.isFlashSale = true " +
+            "AND p.flashSaleEndTime <= :now AND p.isHotStock = :hotStock")
+    List<Long> findExpiredFlashSaleIds(@Param("ids") Collection<Long> ids, @Param("now") Instant now,
+                                       @Param("hotStock") boolean hotStock);
+
+    // Kết thúc Flash Sale hàng loạt: khôi phục giá gốc; điều kiện lặp lại để chạy trùng (nhiều instance) không có tác dụng
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.price = COALESCE(p.originalPriceBeforeFs, p.price), p.isFlashSale = false, " +
+            "p.originalPriceBeforeFs = NULL, p.flashSaleEndTime = NULL, p.version = p.version + 1 " +
+            "WHERE p.id IN :ids AND p.isFlashSale = true AND p.flashSaleEndTime <= :now AND p.isHotStock = false")
+    int revertExpiredFlashSales(@Param("ids") Collection<Long> ids, @Param("now") Instant now);
+
+    @Query("SELECT p.id FROM Product p WHERE p.id IN :ids AND p.isFlashSale = :flashSale")
+    List<Long> findIdsByFlashSale(@Param("ids") Collection<Long> ids, @Param("flashSale") boolean flashSale);
+
+    @Query("SELECT p.id FROM Product p WHERE p.id IN :ids AND p.isFlashSale = :flashSale AND p.isHotStock = :hotStock")
+    List<Long> findIdsByFlashSaleState(@Param("ids") Collection<Long> ids, @Param("flashSale") boolean flashSale,
+                                       @Param("hotStock") boolean hotStock);
+
+    // START hàng loạt cho các sản phẩm cùng giá sale/thời điểm kết thúc; sản phẩm đã ở Flash Sale bị bỏ qua (event trùng)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.originalPriceBeforeFs = p.price, p.price = :salePrice, p.isFlashSale = true, " +
+            "p.flashSaleEndTime = :endTime, p.version = p.version + 1 " +
+            "WHERE p.id IN :ids AND p.isFlashSale = false")
+    int startFlashSales(@Param("ids") Collection<Long> ids, @Param("salePrice") Double salePrice,
+                        @Param("endTime") Instant endTime);
+
+    // END/CANCELLED hàng loạt: giống revertExpiredFlashSales nhưng không chờ đến flashSaleEndTime
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.price = COALESCE(p.originalPriceBeforeFs, p.price), p.isFlashSale = false, " +
+            "p.originalPriceBeforeFs = NULL, p.flashSaleEndTime = NULL, p.version = p.version + 1 " +
+            "WHERE p.id IN :ids AND p.isFlashSale = true AND p.isHotStock = false")
+    int endFlashSales(@Param("ids") Collection<Long> ids);
+}
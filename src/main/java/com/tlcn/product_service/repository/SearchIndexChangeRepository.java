@@ -0,0 +1,35 @@
+package com.tlcn.product_service.repository;
+
+import com.tlcn.product_service.model.SearchIndexChange;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface SearchIndexChangeRepository extends JpaRepository<SearchIndexChange, Long> {
+
+    // Thay đổi chưa được index và đã đủ cũ (không còn đang chờ trong hàng đợi của instance vừa ghi)
+    @Query("SELECT c FROM SearchIndexChange c WHERE c.indexedAt IS NULL AND c.createdAt < :cutoff ORDER BY c.id")
+    List<SearchIndexChange> findPendingBefore(@Param("cutoff") Instant cutoff, Pageable page);
+
+    // Mọi sản phẩm thay đổi từ thời điểm since, trên tất cả instance (dùng để replay sau reindex)
+    @Query("SELECT DISTINCT c.productId FROM SearchIndexChange c WHERE c.createdAt >= :since")
+    List<Long> findProductIdsChangedSince(@Param("since") Instant since);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE SearchIndexChange c SET c.indexedAt = :now WHERE c.id IN :ids")
+    int markIndexed(@Param("ids") Collection<Long> ids, @Param("now") Instant now);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM SearchIndexChange c WHERE c.indexedAt < :cutoff")
+    int deleteIndexedBefore(@Param("cutoff") Instant cutoff);
+}
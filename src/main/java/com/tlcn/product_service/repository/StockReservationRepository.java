@@ -0,0 +1,48 @@
+package com.tlcn.product_service.repository;
+
+import com.tlcn.product_service.model.StockReservation;
+import com.tlcn.product_service.model.StockReservationStatus;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface StockReservationRepository extends JpaRepository<StockReservation, Long> {
+
+    Optional<StockReservation> findByOrderIdAndProductId(Long orderId, Long productId);
+
+    // Ghi nhận (orderId, productId) trong transaction trừ kho; trả về 0 nếu đã có (request bị gửi lại).
+    // Ràng buộc unique duy nhất của bảng là (order_id, product_id); unique index khóa cặp key nên request trùng chạy song song sẽ chờ transaction đầu tiên rồi nhận 0.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "INSERT INTO stock_reservation (order_id, product_id, quantity, status, created_at) " +
+            "VALUES (:orderId, :productId, :quantity, :status, :now) " +
+            "ON CONFLICT DO NOTHING", nativeQuery = true)
+    int claim(@Param("orderId") Long orderId, @Param("productId") Long productId, @Param("quantity") int quantity,
+              @Param("status") String status, @Param("now") Instant now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE StockReservation r SET r.stockAfter = :stock WHERE r.orderId = :orderId AND r.productId = :productId")
+    int recordStock(@Param("orderId") Long orderId, @Param("productId") Long productId, @Param("stock") int stock);
+
+    // Bỏ claim của reservation thất bại trong batch (không thể rollback cả transaction)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM StockReservation r WHERE r.orderId = :orderId AND r.productId = :productId AND r.status = :status")
+    int deleteClaim(@Param("orderId") Long orderId, @Param("productId") Long productId,
+                    @Param("status") StockReservationStatus status);
+
+    // Chỉ chuyển RESERVED -> ROLLED_BACK một lần => rollback trùng không cộng kho lần nữa
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE StockReservation r SET r.status = :to, r.rolledBackAt = :now " +
+            "WHERE r.orderId = :orderId AND r.productId = :productId AND r.status = :from")
+    int transition(@Param("orderId") Long orderId, @Param("productId") Long productId,
+                   @Param("from") StockReservationStatus from, @Param("to") StockReservationStatus to,
+                   @Param("now") Instant now);
+
+    @Modifying
+    @Query("DELETE FROM StockReservation r WHERE r.createdAt < :cutoff")
+    int deleteCreatedBefore(@Param("cutoff") Instant cutoff);
+}
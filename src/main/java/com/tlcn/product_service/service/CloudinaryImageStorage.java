@@ -0,0 +1,42 @@
+package com.tlcn.product_service.service;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.utils.ObjectUtils;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Map;
+
+@Component
+@Timed(value = "product.segment", extraTags = {"segment", "cloudinary"})
+@ConditionalOnProperty(name = "product.image.storage", havingValue = "cloudinary", matchIfMissing = true)
+public class CloudinaryImageStorage implements ImageStorage {
+
+    @Autowired
+    private Cloudinary cloudinary;
+
+    @Value("${cloudinary.folder}")
+    private String cloudinaryFolder;
+
+    @Override
+    public String upload(byte[] content, String contentType) throws IOException {
+        Map uploadResult = cloudinary.uploader().upload(content, ObjectUtils.asMap("folder", cloudinaryFolder));
+        String publicId = (String) uploadResult.get("public_id");
+        return cloudinary.url().generate(publicId);
+    }
+
+    @Override
+    public void delete(String imageUrl) throws IOException {
+        cloudinary.uploader().destroy(extractPublicIdFromUrl(imageUrl, cloudinaryFolder), ObjectUtils.emptyMap());
+    }
+
+    public static String extractPublicIdFromUrl(String url, String folder) {
+        String[] parts = url.split("/");
+        String lastPart = parts[parts.length - 1].split("\\.")[0];
+        return folder + "/" + lastPart;
+    }
+}
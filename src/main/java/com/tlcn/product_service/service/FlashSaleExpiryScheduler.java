@@ -0,0 +1,275 @@
+package com.tlcn.product_service.service;
+
+import com.tlcn.product_service.config.ThreadFactories;
+import com.tlcn.product_service.repository.ProductRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Kết thúc Flash Sale đúng flashSaleEndTime mà không phụ thuộc vào END event. Hàng đợi ưu tiên theo thời điểm
+ * kết thúc được nạp từ DB lúc khởi động (và đồng bộ lại định kỳ, vì START event chỉ đến một instance trong group),
+ * cập nhật bởi FlashSaleEventListener. Các sản phẩm hết hạn cùng lúc được khôi phục bằng một UPDATE và một lần
+ * bulk ES. Redis lock theo từng thời điểm hết hạn giảm việc nhiều instance chạy cùng lúc; instance không lấy
+ * được lock dời sản phẩm của mình lại retry-delay thay vì bỏ qua. Câu UPDATE có điều kiện nên chạy trùng cũng không sai.
+ */
+@Service
+public class FlashSaleExpiryScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleExpiryScheduler.class);
+
+    private static final String LOCK_PREFIX = "product:flashsale:expiry:";
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private FlashSaleService flashSaleService;
+
+    @Autowired
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Value("${product.flash-sale.expiry.enabled:true}")
+    private boolean enabled;
+
+    @Value("${product.flash-sale.expiry.lock-ttl:30s}")
+    private Duration lockTtl;
+
+    @Value("${product.flash-sale.expiry.retry-delay:5s}")
+    private Duration retryDelay;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    // epochMillis -> các sản phẩm hết hạn tại thời điểm đó
+    private final TreeMap<Long, Set<Long>> deadlines = new TreeMap<>();
+    private final Map<Long, Long> deadlineByProduct = new HashMap<>();
+
+    private volatile boolean running = true;
+    private Thread worker;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        worker = ThreadFactories.named("flash-sale-expiry", false).newThread(this::runLoop);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (worker == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        worker.join(5000);
+    }
+
+    /**
+     * Lên lịch kết thúc Flash Sale; trong transaction thì chỉ áp dụng sau khi commit.
+     */
+    public void schedule(Long productId, Instant endTime) {
+        if (!enabled || productId == null || endTime == null) {
+            return;
+        }
+        afterCommit(() -> add(productId, endTime.toEpochMilli()));
+    }
+
+    public void cancel(Long productId) {
+        if (!enabled || productId == null) {
+            return;
+        }
+        afterCommit(() -> remove(productId));
+    }
+
+    // Chạy ngay khi khởi động rồi định kỳ: chỉ thêm, không xóa (mục thừa khi hết hạn sẽ UPDATE 0 dòng)
+    @Scheduled(fixedDelayString = "${product.flash-sale.expiry.resync-interval-ms:60000}")
+    public void resync() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<ProductRepository.FlashSaleExpiryView> active = productRepository.findByIsFlashSaleTrueAndFlashSaleEndTimeIsNotNull();
+            for (ProductRepository.FlashSaleExpiryView view : active) {
+                add(view.getId(), view.getFlashSaleEndTime().toEpochMilli());
+            }
+            log.debug("Flash Sale expiry queue synced: {} active sales", active.size());
+        } catch (Exception e) {
+            log.error("Failed to load Flash Sale end times: {}", e.getMessage());
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return deadlineByProduct.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(Long productId, long deadline) {
+        lock.lock();
+        try {
+            Long previous = deadlineByProduct.put(productId, deadline);
+            if (previous != null && previous != deadline) {
+                removeFromDeadline(previous, productId);
+            }
+            deadlines.computeIfAbsent(deadline, k -> new HashSet<>()).add(productId);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(Long productId) {
+        lock.lock();
+        try {
+            Long deadline = deadlineByProduct.remove(productId);
+            if (deadline != null) {
+                removeFromDeadline(deadline, productId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeFromDeadline(long deadline, Long productId) {
+        Set<Long> ids = deadlines.get(deadline);
+        if (ids != null) {
+            ids.remove(productId);
+            if (ids.isEmpty()) {
+                deadlines.remove(deadline);
+            }
+        }
+    }
+
+    private void runLoop() {
+        while (running) {
+            // deadline -> các sản phẩm đến hạn; một lượt có thể gom nhiều deadline
+            Map<Long, List<Long>> due = new TreeMap<>();
+            lock.lock();
+            try {
+                if (deadlines.isEmpty()) {
+                    changed.await(1, TimeUnit.SECONDS);
+                    continue;
+                }
+                long wait = deadlines.firstKey() - System.currentTimeMillis();
+                if (wait > 0) {
+                    changed.await(wait, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                // Gom mọi sản phẩm đã đến hạn thành một lượt
+                long now = System.currentTimeMillis();
+                while (!deadlines.isEmpty() && deadlines.firstKey() <= now) {
+                    Map.Entry<Long, Set<Long>> entry = deadlines.pollFirstEntry();
+                    for (Long productId : entry.getValue()) {
+                        deadlineByProduct.remove(productId, entry.getKey());
+                    }
+                    due.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            expire(due);
+        }
+    }
+
+    private void expire(Map<Long, List<Long>> due) {
+        List<Long> productIds = new ArrayList<>();
+        List<String> lockKeys = new ArrayList<>();
+        long retryAt = System.currentTimeMillis() + retryDelay.toMillis();
+        for (Map.Entry<Long, List<Long>> entry : due.entrySet()) {
+            String lockKey = LOCK_PREFIX + entry.getKey();
+            if (acquire(lockKey)) {
+                lockKeys.add(lockKey);
+                productIds.addAll(entry.getValue());
+            } else {
+                // Instance giữ lock có thể chỉ biết một phần sản phẩm của deadline này (START đến instance khác,
+                // chưa resync) => không bỏ, chạy lại sau retry-delay; UPDATE có điều kiện nên chạy trùng không sai
+                entry.getValue().forEach(productId -> add(productId, retryAt));
+            }
+        }
+        if (productIds.isEmpty()) {
+            return;
+        }
+        try {
+            flashSaleService.expireFlashSales(productIds, Instant.ofEpochMilli(System.currentTimeMillis()));
+        } catch (Exception e) {
+            log.error("Failed to expire {} Flash Sales, retrying in {}: {}", productIds.size(), retryDelay, e.getMessage());
+            productIds.forEach(productId -> add(productId, retryAt));
+        } finally {
+            // Nhả lock ngay (kể cả khi thành công): instance đang dời deadline này chạy lại sau retry-delay
+            // thay vì chờ hết lock-ttl; sản phẩm đã hết hạn thì UPDATE có điều kiện không đổi gì
+            releaseLocks(lockKeys);
+        }
+    }
+
+    private void releaseLocks(List<String> lockKeys) {
+        try {
+            redisTemplate.delete(lockKeys);
+        } catch (Exception e) {
+            log.warn("Failed to release Flash Sale expiry locks {}: {}", lockKeys, e.getMessage());
+        }
+    }
+
+    // Lock theo từng deadline: instance khác đang chạy deadline đó thì lượt này chỉ dời lại, không bỏ.
+    // Redis lỗi thì vẫn chạy vì UPDATE có điều kiện
+    private boolean acquire(String lockKey) {
+        try {
+            Boolean acquired = redisTemplate.opsForValue().setIfAbsent(lockKey, "1", lockTtl);
+            if (!Boolean.TRUE.equals(acquired)) {
+                log.debug("Flash Sale expiry {} held by another instance, re-checking in {}", lockKey, retryDelay);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            log.warn("Flash Sale expiry lock unavailable, running anyway: {}", e.getMessage());
+            return true;
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
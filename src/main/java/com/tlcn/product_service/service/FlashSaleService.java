@@ -0,0 +1,262 @@
+package com.tlcn.product_service.service;
+
+import com.tlcn.product_service.dto.FlashSaleEvent;
+import com.tlcn.product_service.model.Product;
+import com.tlcn.product_service.repository.ProductRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.OptimisticLockException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Thao tác Flash Sale theo lô (set-based UPDATE) thay vì từng sản phẩm một transaction.
+ */
+@Service
+public class FlashSaleService {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleService.class);
+
+    // Giới hạn số tham số trong mệnh đề IN
+    private static final int CHUNK_SIZE = 1000;
+
+    // Số lần thử lại một sản phẩm khi xung đột @Version ở đường xử lý từng entity
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private HotStockService hotStockService;
+
+    @Autowired
+    private ProductCacheService productCacheService;
+
+    @Autowired
+    private ProductSearchIndexer productSearchIndexer;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Kết quả xử lý một batch event: các sản phẩm thực sự bắt đầu/kết thúc Flash Sale và các sản phẩm
+     * vẫn lỗi sau khi thử lại (caller cho redeliver từ event đầu tiên của chúng).
+     */
+    public record BatchResult(Map<Long, Instant> started, Set<Long> ended, Set<Long> failed) {
+    }
+
+    // Event cuối cùng có hiệu lực của một sản phẩm trong batch
+    private static final class Plan {
+        boolean end;
+        FlashSaleEvent start;
+    }
+
+    private record StartGroup(Double salePrice, Instant endTime) {
+    }
+
+    /**
+     * Bắt đầu Flash Sale cho một sản phẩm (caller đã kiểm tra sản phẩm chưa ở Flash Sale).
+     */
+    public void startSale(Product product, Double salePrice, Instant endTime) {
+        product.setOriginalPriceBeforeFs(product.getPrice()); // Lưu giá gốc
+        product.setPrice(salePrice);
+        product.setFlashSale(true);
+        product.setFlashSaleEndTime(endTime);
+        hotStockService.activate(product); // Hot-stock mode (nếu bật): nạp tồn kho lên Redis
+        productRepository.save(product);
+        productCacheService.evict(product.getId());
+        productSearchIndexer.enqueueStockAndPrice(product.getId());
+    }
+
+    /**
+     * Kết thúc Flash Sale cho một sản phẩm: khôi phục giá gốc (giữ giá hiện tại nếu không có) và đóng hot-stock ledger.
+     */
+    public void endSale(Product product) {
+        if (product.getOriginalPriceBeforeFs() != null) {
+            product.setPrice(product.getOriginalPriceBeforeFs());
+        }
+        product.setFlashSale(false);
+        product.setOriginalPriceBeforeFs(null);
+        product.setFlashSaleEndTime(null);
+        hotStockService.deactivate(product); // Đóng ledger, bàn giao tồn kho lại cho DB sau khi commit
+        productRepository.save(product);
+        productCacheService.evict(product.getId());
+        productSearchIndexer.enqueueStockAndPrice(product.getId());
+    }
+
+    /**
+     * Kết thúc Flash Sale của các sản phẩm đã quá flashSaleEndTime: một UPDATE cho mỗi chunk id, sản phẩm ở
+     * hot-stock mode đi qua đường từng sản phẩm để đóng ledger. Sản phẩm đã kết thúc trước đó (END event,
+     * instance khác) bị bỏ qua nhờ điều kiện trong câu UPDATE.
+     *
+     * @return id các sản phẩm thực sự được khôi phục giá
+     */
+    @Transactional
+    public List<Long> expireFlashSales(Collection<Long> productIds, Instant now) {
+        List<Long> ids = new ArrayList<>(productIds);
+        List<Long> reverted = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(i, Math.min(i + CHUNK_SIZE, ids.size()));
+
+            List<Long> expired = productRepository.findExpiredFlashSaleIds(chunk, now, false);
+            if (!expired.isEmpty() && productRepository.revertExpiredFlashSales(expired, now) > 0) {
+                reverted.addAll(expired);
+                expired.forEach(this::afterBulkUpdate);
+            }
+
+            List<Long> hotExpired = productRepository.findExpiredFlashSaleIds(chunk, now, true);
+            for (Product product : productRepository.findAllById(hotExpired)) {
+                endSale(product);
+                reverted.add(product.getId());
+            }
+        }
+        log.info("Flash Sale expired: requested={}, reverted={}", ids.size(), reverted.size());
+        return reverted;
+    }
+
+    /**
+     * Áp dụng một batch START/END/CANCELLED event. Event được rút gọn theo sản phẩm (giữ đúng kết quả như khi xử lý
+     * tuần tự), END chạy trước START. Phần set-based chạy trong một transaction: một UPDATE cho mỗi chunk END và
+     * một UPDATE cho mỗi nhóm START cùng giá sale/thời điểm kết thúc. Câu UPDATE không kiểm tra @Version nên không
+     * có xung đột optimistic lock. Sản phẩm cần đi qua entity (hot-stock) được xử lý riêng từng transaction,
+     * xung đột @Version chỉ làm thử lại sản phẩm đó.
+     */
+    public BatchResult applyBatch(List<FlashSaleEvent> events) {
+        Map<Long, Plan> plans = reduce(events);
+        List<Long> endIds = new ArrayList<>();
+        Map<StartGroup, List<Long>> startGroups = new LinkedHashMap<>();
+        Map<Long, FlashSaleEvent> startEvents = new LinkedHashMap<>();
+        plans.forEach((productId, plan) -> {
+            if (plan.end) {
+                endIds.add(productId);
+            }
+            if (plan.start != null) {
+                startEvents.put(productId, plan.start);
+                startGroups.computeIfAbsent(new StartGroup(plan.start.getSalePrice(), plan.start.getEndTime()),
+                        k -> new ArrayList<>()).add(productId);
+            }
+        });
+
+        Map<Long, Instant> started = new LinkedHashMap<>();
+        Set<Long> ended = new LinkedHashSet<>();
+        Set<Long> failed = new LinkedHashSet<>();
+        List<Long> hotEndIds = new ArrayList<>();
+        boolean hotStockStart = hotStockService.isEnabled();
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            for (int i = 0; i < endIds.size(); i += CHUNK_SIZE) {
+                List<Long> chunk = endIds.subList(i, Math.min(i + CHUNK_SIZE, endIds.size()));
+                hotEndIds.addAll(productRepository.findIdsByFlashSaleState(chunk, true, true));
+                List<Long> toEnd = productRepository.findIdsByFlashSaleState(chunk, true, false);
+                if (!toEnd.isEmpty()) {
+                    productRepository.endFlashSales(toEnd);
+                    ended.addAll(toEnd);
+                }
+            }
+            if (!hotStockStart) {
+                startGroups.forEach((group, ids) -> {
+                    for (int i = 0; i < ids.size(); i += CHUNK_SIZE) {
+                        List<Long> chunk = ids.subList(i, Math.min(i + CHUNK_SIZE, ids.size()));
+                        List<Long> toStart = productRepository.findIdsByFlashSale(chunk, false);
+                        if (!toStart.isEmpty()) {
+                            productRepository.startFlashSales(toStart, group.salePrice(), group.endTime());
+                            toStart.forEach(id -> started.put(id, group.endTime()));
+                        }
+                    }
+                });
+            }
+            ended.forEach(this::afterBulkUpdate);
+            started.keySet().forEach(this::afterBulkUpdate);
+        });
+
+        // Đường từng entity: đóng ledger khi END, nạp ledger khi START ở hot-stock mode
+        for (Long productId : hotEndIds) {
+            applyToEntity(productId, failed, product -> {
+                if (product.isFlashSale()) {
+                    endSale(product);
+                    ended.add(productId);
+                }
+            });
+        }
+        if (hotStockStart) {
+            startEvents.forEach((productId, event) -> {
+                if (failed.contains(productId)) {
+                    return;
+                }
+                applyToEntity(productId, failed, product -> {
+                    if (!product.isFlashSale()) {
+                        startSale(product, event.getSalePrice(), event.getEndTime());
+                        started.put(productId, event.getEndTime());
+                    }
+                });
+            });
+        }
+
+        log.info("Flash Sale batch applied: events={}, products={}, started={}, ended={}, failed={}",
+                events.size(), plans.size(), started.size(), ended.size(), failed.size());
+        return new BatchResult(started, ended, failed);
+    }
+
+    // Kết quả giống xử lý tuần tự: START lặp lại bị bỏ qua, END sau START hủy START đó,
+    // END trước START thì kết thúc Flash Sale hiện tại rồi mới bắt đầu cái mới.
+    private static Map<Long, Plan> reduce(List<FlashSaleEvent> events) {
+        Map<Long, Plan> plans = new LinkedHashMap<>();
+        for (FlashSaleEvent event : events) {
+            Plan plan = plans.computeIfAbsent(event.getProductId(), k -> new Plan());
+            switch (event.getEventType()) {
+                case "START" -> {
+                    if (plan.start == null) {
+                        plan.start = event;
+                    }
+                }
+                case "END", "CANCELLED" -> {
+                    plan.start = null;
+                    plan.end = true;
+                }
+                default -> log.warn("Unknown Flash Sale Event Type: {}", event.getEventType());
+            }
+        }
+        return plans;
+    }
+
+    private void applyToEntity(Long productId, Set<Long> failed, Consumer<Product> action) {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                        productRepository.findById(productId).ifPresent(action));
+                return;
+            } catch (ObjectOptimisticLockingFailureException | OptimisticLockException e) {
+                meterRegistry.counter("product.flash-sale.optimistic-lock.conflicts", "path", "batch").increment();
+                log.warn("Optimistic Lock conflict for Product ID {} (attempt {}/{})", productId, attempt, MAX_ATTEMPTS);
+            } catch (Exception e) {
+                log.error("Failed to apply Flash Sale event for Product ID {}: {}", productId, e.getMessage());
+                break;
+            }
+        }
+        failed.add(productId);
+    }
+
+    // Câu UPDATE hàng loạt bỏ qua persistence context: evict cache và gửi partial update lên ES sau khi commit
+    private void afterBulkUpdate(Long productId) {
+        productCacheService.evict(productId);
+        productSearchIndexer.enqueueStockAndPrice(productId);
+    }
+}
@@ -0,0 +1,198 @@
+package com.tlcn.product_service.service;
+
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Sổ tồn kho "nóng" trên Redis cho sản phẩm Flash Sale. Mỗi sản phẩm là một hash:
+ * stock (tồn hiện tại), reserved/released (delta chưa flush), inflightReserved/inflightReleased
+ * (delta đang được flush với số thứ tự seq) và closed (đang bàn giao lại cho DB).
+ * Mọi thao tác đều là Lua script nên nguyên tử trên Redis.
+ */
+@Component
+public class HotStockLedger {
+
+    static final String KEY_PREFIX = "product:hotstock:";
+    static final String ACTIVE_KEY = "product:hotstock:active";
+
+    private static final RedisSerializer<String> STRING = new StringRedisSerializer();
+
+    private static final RedisScript<Long> SEED = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end
+            redis.call('HSET', KEYS[1], 'stock', ARGV[1], 'reserved', 0, 'released', 0,
+                'inflightReserved', 0, 'inflightReleased', 0, 'seq', ARGV[3], 'closed', 0)
+            redis.call('SADD', KEYS[2], ARGV[2])
+            return 1
+            """, Long.class);
+
+    private static final RedisScript<List> RESERVE = new DefaultRedisScript<>("""
+            local closed = redis.call('HGET', KEYS[1], 'closed')
+            if not closed or closed == '1' then return {-1, 0} end
+            local stock = tonumber(redis.call('HGET', KEYS[1], 'stock'))
+            local qty = tonumber(ARGV[1])
+            if stock < qty then return {0, stock} end
+            redis.call('HINCRBY', KEYS[1], 'reserved', qty)
+            return {1, redis.call('HINCRBY', KEYS[1], 'stock', -qty)}
+            """, List.class);
+
+    private static final RedisScript<List> RELEASE = new DefaultRedisScript<>("""
+            local closed = redis.call('HGET', KEYS[1], 'closed')
+            if not closed or closed == '1' then return {-1, 0} end
+            local qty = tonumber(ARGV[1])
+            redis.call('HINCRBY', KEYS[1], 'released', qty)
+            return {1, redis.call('HINCRBY', KEYS[1], 'stock', qty)}
+            """, List.class);
+
+    // Bù lại thao tác đã chạy trên Redis khi transaction DB bao quanh rollback; áp dụng cả khi ledger đã đóng
+    // vì delta vẫn được flush lần cuối trước khi bàn giao
+    private static final RedisScript<List> COMPENSATE = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then return {-1, 0} end
+            redis.call('HINCRBY', KEYS[1], ARGV[1], ARGV[2])
+            return {1, redis.call('HINCRBY', KEYS[1], 'stock', ARGV[3])}
+            """, List.class);
+
+    // Chuyển delta đang chờ sang inflight với seq mới. Nếu inflight còn sót (crash giữa chừng) thì trả lại nguyên seq cũ.
+    private static final RedisScript<List> BEGIN_FLUSH = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then return {-1, 0, 0, 0, 0, 0} end
+            local h = redis.call('HMGET', KEYS[1], 'stock', 'reserved', 'released',
+                'inflightReserved', 'inflightReleased', 'seq', 'closed')
+            local stock = tonumber(h[1])
+            local seq = tonumber(h[6])
+            local closed = tonumber(h[7])
+            local ir = tonumber(h[4])
+            local il = tonumber(h[5])
+            if ir == 0 and il == 0 then
+                ir = tonumber(h[2])
+                il = tonumber(h[3])
+                if ir == 0 and il == 0 then return {0, seq, 0, 0, stock, closed} end
+                seq = seq + 1
+                redis.call('HSET', KEYS[1], 'inflightReserved', ir, 'inflightReleased', il,
+                    'reserved', 0, 'released', 0, 'seq', seq)
+            end
+            return {1, seq, ir, il, stock, closed}
+            """, List.class);
+
+    private static final RedisScript<Long> COMMIT_FLUSH = new DefaultRedisScript<>("""
+            if redis.call('HGET', KEYS[1], 'seq') ~= ARGV[1] then return 0 end
+            redis.call('HSET', KEYS[1], 'inflightReserved', 0, 'inflightReleased', 0)
+            return 1
+            """, Long.class);
+
+    private static final RedisScript<Long> CLOSE = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then return 0 end
+            redis.call('HSET', KEYS[1], 'closed', 1)
+            return 1
+            """, Long.class);
+
+    private static final RedisScript<Long> REMOVE = new DefaultRedisScript<>("""
+            redis.call('DEL', KEYS[1])
+            redis.call('SREM', KEYS[2], ARGV[1])
+            return 1
+            """, Long.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    public HotStockLedger(RedisTemplate<String, String> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    public record Result(Status status, int stock) {
+    }
+
+    public enum Status { OK, INSUFFICIENT, NOT_ACTIVE }
+
+    /**
+     * Kết quả BEGIN_FLUSH. pending = false nghĩa là không còn gì để ghi xuống DB.
+     */
+    public record FlushBatch(Long productId, boolean exists, boolean pending, long seq,
+                             int reserved, int released, int stock, boolean closed) {
+    }
+
+    public boolean seed(Long productId, int stock, long flushSeq) {
+        Long created = execute(SEED, List.of(key(productId), ACTIVE_KEY),
+                String.valueOf(stock), String.valueOf(productId), String.valueOf(flushSeq));
+        return created != null && created == 1;
+    }
+
+    public Result reserve(Long productId, int quantity) {
+        return toResult(execute(RESERVE, List.of(key(productId)), String.valueOf(quantity)), Status.INSUFFICIENT);
+    }
+
+    public Result release(Long productId, int quantity) {
+        return toResult(execute(RELEASE, List.of(key(productId)), String.valueOf(quantity)), null);
+    }
+
+    /**
+     * Hoàn lại một reservation đã trừ trên Redis (ghi nhận như một lần release).
+     */
+    public Result compensateReserve(Long productId, int quantity) {
+        return toResult(execute(COMPENSATE, List.of(key(productId)),
+                "released", String.valueOf(quantity), String.valueOf(quantity)), null);
+    }
+
+    /**
+     * Hủy một lần release đã cộng trên Redis (ghi nhận như một lần reserve, không kiểm tra tồn kho).
+     */
+    public Result compensateRelease(Long productId, int quantity) {
+        return toResult(execute(COMPENSATE, List.of(key(productId)),
+                "reserved", String.valueOf(quantity), String.valueOf(-quantity)), null);
+    }
+
+    public FlushBatch beginFlush(Long productId) {
+        List<?> r = execute(BEGIN_FLUSH, List.of(key(productId)));
+        long code = toLong(r.get(0));
+        return new FlushBatch(productId, code >= 0, code == 1, toLong(r.get(1)),
+                (int) toLong(r.get(2)), (int) toLong(r.get(3)), (int) toLong(r.get(4)), toLong(r.get(5)) == 1);
+    }
+
+    public void commitFlush(Long productId, long seq) {
+        execute(COMMIT_FLUSH, List.of(key(productId)), String.valueOf(seq));
+    }
+
+    public boolean close(Long productId) {
+        Long closed = execute(CLOSE, List.of(key(productId)));
+        return closed != null && closed == 1;
+    }
+
+    public void remove(Long productId) {
+        execute(REMOVE, List.of(key(productId), ACTIVE_KEY), String.valueOf(productId));
+    }
+
+    public Set<Long> activeProductIds() {
+        Set<byte[]> members = redisTemplate.execute((RedisCallback<Set<byte[]>>) connection ->
+                connection.setCommands().sMembers(STRING.serialize(ACTIVE_KEY)));
+        if (members == null) {
+            return Collections.emptySet();
+        }
+        return members.stream().map(m -> Long.valueOf(STRING.deserialize(m))).collect(Collectors.toSet());
+    }
+
+    private Result toResult(List<?> r, Status zeroStatus) {
+        long code = toLong(r.get(0));
+        Status status = code == 1 ? Status.OK : code == 0 ? zeroStatus : Status.NOT_ACTIVE;
+        return new Result(status, (int) toLong(r.get(1)));
+    }
+
+    // Dùng StringRedisSerializer cho args/kết quả vì value serializer mặc định của template là JSON
+    private <T> T execute(RedisScript<T> script, List<String> keys, String... args) {
+        return redisTemplate.execute(script, STRING, (RedisSerializer<T>) STRING, keys, (Object[]) args);
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number n ? n.longValue() : Long.parseLong(String.valueOf(value));
+    }
+
+    private static String key(Long productId) {
+        return KEY_PREFIX + productId;
+    }
+}
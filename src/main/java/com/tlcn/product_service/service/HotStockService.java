@@ -0,0 +1,250 @@
+package com.tlcn.product_service.service;
+
+import com.tlcn.product_service.kafka.ProductEventProducer;
+import com.tlcn.product_service.model.Product;
+import com.tlcn.product_service.repository.ProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hot-stock mode cho sản phẩm Flash Sale: khi START, tồn kho được nạp lên {@link HotStockLedger} (Redis)
+ * và mọi reservation/rollback chạy bằng Lua script trên Redis. Flusher định kỳ ghi delta xuống Postgres
+ * và Elasticsearch theo batch. Khi END/CANCELLED, ledger bị đóng, được flush lần cuối rồi bàn giao lại cho DB.
+ *
+ * Quy tắc để không bao giờ oversell khi crash:
+ * - Khi isHotStock = true, câu UPDATE trừ kho trên DB bị chặn, chỉ flusher được ghi stock.
+ * - Delta được chuyển sang inflight cùng một seq trước khi ghi DB; câu UPDATE chỉ áp dụng nếu seq lớn hơn
+ *   hotStockFlushSeq đã lưu, nên flush lại sau crash không bị cộng/trừ hai lần.
+ * - isHotStock chỉ được tắt sau khi ledger đã đóng và không còn delta nào chưa ghi.
+ * - Nếu ledger bị mất (Redis mất dữ liệu) trong khi isHotStock = true, reservation bị từ chối thay vì
+ *   quay lại DB, vì stock trên DB có thể chưa trừ các reservation chưa flush.
+ */
+@Service
+public class HotStockService {
+
+    private static final Logger log = LoggerFactory.getLogger(HotStockService.class);
+
+    @Autowired
+    private HotStockLedger hotStockLedger;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductSearchIndexer productSearchIndexer;
+
+    @Autowired
+    private ProductEventProducer productEventProducer;
+
+    @Autowired
+    private ProductCacheService productCacheService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${product.hot-stock.enabled:false}")
+    private boolean enabled;
+
+    // ReentrantLock thay cho synchronized: flush gọi Redis/DB khi đang giữ lock, synchronized sẽ pin virtual thread
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gọi trong transaction của START event. isHotStock = true được flush ngay nên row bị khóa tới khi commit
+     * (câu trừ kho trên DB phải chờ), rồi ledger được nạp trước khi commit: không có khoảng trống nào mà
+     * reservation rơi vào đường DB đã bị chặn. Nếu transaction rollback, ledger được đóng và bàn giao lại cho DB
+     * cùng các reservation đã nhận trên Redis trong lúc đó.
+     */
+    public void activate(Product product) {
+        if (!enabled) {
+            return;
+        }
+        product.setHotStock(true);
+        productRepository.saveAndFlush(product);
+        Long productId = product.getId();
+        long flushSeq = product.getHotStockFlushSeq() == null ? 0 : product.getHotStockFlushSeq();
+        // Row đang bị transaction này khóa => stock đọc được đã gồm mọi lần trừ kho đã commit trên DB
+        int stock = productRepository.findStockById(productId).orElse(0);
+        boolean seeded = hotStockLedger.seed(productId, stock, flushSeq);
+        log.info("Hot-stock activated: productId={}, stock={}, seeded={}", productId, stock, seeded);
+        if (seeded && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        log.warn("Hot-stock activation rolled back, handing productId={} back to database", productId);
+                        hotStockLedger.close(productId);
+                        HotStockService.this.flush(Set.of(productId));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Gọi trong transaction của END/CANCELLED event. Ledger bị đóng ngay (không nhận reservation mới),
+     * việc flush cuối và bàn giao cho DB chạy sau khi transaction commit.
+     */
+    public void deactivate(Product product) {
+        if (!product.isHotStock()) {
+            return;
+        }
+        Long productId = product.getId();
+        if (!hotStockLedger.close(productId)) {
+            // Không có ledger => không biết các reservation chưa flush, giữ nguyên isHotStock để không oversell
+            log.error("Hot-stock ledger missing for productId={}. Product stays locked until reconciled manually.", productId);
+            return;
+        }
+        log.info("Hot-stock closing: productId={}", productId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    HotStockService.this.flush(Set.of(productId));
+                }
+            });
+        }
+    }
+
+    /**
+     * Trong transaction thì reservation được hoàn lại trên Redis nếu transaction rollback
+     * (ledger claim của order cũng bị rollback, request gửi lại sẽ trừ kho lần nữa).
+     *
+     * @return null nếu sản phẩm không ở hot-stock mode (caller dùng đường DB)
+     */
+    public HotStockLedger.Result reserve(Long productId, int quantity) {
+        if (!enabled) {
+            return null;
+        }
+        HotStockLedger.Result result = hotStockLedger.reserve(productId, quantity);
+        if (result.status() == HotStockLedger.Status.OK) {
+            compensateOnRollback(productId, quantity, true);
+        }
+        return result.status() == HotStockLedger.Status.NOT_ACTIVE ? null : result;
+    }
+
+    public HotStockLedger.Result release(Long productId, int quantity) {
+        if (!enabled) {
+            return null;
+        }
+        HotStockLedger.Result result = hotStockLedger.release(productId, quantity);
+        if (result.status() == HotStockLedger.Status.OK) {
+            compensateOnRollback(productId, quantity, false);
+        }
+        return result.status() == HotStockLedger.Status.NOT_ACTIVE ? null : result;
+    }
+
+    private void compensateOnRollback(Long productId, int quantity, boolean reserved) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_ROLLED_BACK) {
+                    return;
+                }
+                try {
+                    HotStockLedger.Result result = reserved
+                            ? hotStockLedger.compensateReserve(productId, quantity)
+                            : hotStockLedger.compensateRelease(productId, quantity);
+                    if (result.status() == HotStockLedger.Status.NOT_ACTIVE) {
+                        log.error("Hot-stock ledger gone, cannot compensate rolled back {}: productId={}, quantity={}",
+                                reserved ? "reservation" : "release", productId, quantity);
+                    }
+                } catch (Exception e) {
+                    log.error("Failed to compensate rolled back hot-stock {} for productId={}, quantity={}: {}",
+                            reserved ? "reservation" : "release", productId, quantity, e.getMessage());
+                }
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${product.hot-stock.flush-interval-ms:500}")
+    public void flushAll() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Set<Long> productIds = hotStockLedger.activeProductIds();
+            if (!productIds.isEmpty()) {
+                flush(productIds);
+            }
+        } catch (Exception e) {
+            log.error("Hot-stock flush failed: {}", e.getMessage());
+        }
+    }
+
+    private void flush(Set<Long> productIds) {
+        flushLock.lock();
+        try {
+            flushLocked(productIds);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushLocked(Set<Long> productIds) {
+        List<HotStockLedger.FlushBatch> batches = new ArrayList<>();
+        List<Long> toHandOver = new ArrayList<>();
+        for (Long productId : productIds) {
+            HotStockLedger.FlushBatch batch = hotStockLedger.beginFlush(productId);
+            if (batch.pending()) {
+                batches.add(batch);
+            } else if (batch.exists() && batch.closed()) {
+                toHandOver.add(productId);
+            }
+        }
+        if (batches.isEmpty() && toHandOver.isEmpty()) {
+            return;
+        }
+
+        // Một transaction cho cả batch: ghi delta (có điều kiện seq) và tắt isHotStock cho các ledger đã đóng
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            for (HotStockLedger.FlushBatch batch : batches) {
+                productRepository.applyHotStockFlush(batch.productId(), batch.reserved(), batch.released(), batch.seq());
+            }
+            for (Long productId : toHandOver) {
+                productRepository.releaseHotStock(productId);
+            }
+        });
+
+        for (HotStockLedger.FlushBatch batch : batches) {
+            hotStockLedger.commitFlush(batch.productId(), batch.seq());
+            productCacheService.evict(batch.productId());
+        }
+        for (Long productId : toHandOver) {
+            hotStockLedger.remove(productId);
+            productCacheService.evict(productId);
+            log.info("Hot-stock handed back to database: productId={}", productId);
+        }
+
+        if (!batches.isEmpty()) {
+            syncSearchIndex(batches);
+        }
+    }
+
+    private void syncSearchIndex(List<HotStockLedger.FlushBatch> batches) {
+        for (HotStockLedger.FlushBatch batch : batches) {
+            productSearchIndexer.enqueueStockAndPrice(batch.productId());
+            productEventProducer.sendInventoryUpdate(batch.productId(), batch.stock(), "product-service-hot-stock");
+        }
+        log.debug("Hot-stock flushed: products={}", batches.size());
+    }
+}
@@ -0,0 +1,16 @@
+package com.tlcn.product_service.service;
+
+import java.io.IOException;
+
+/**
+ * Nơi lưu ảnh sản phẩm. Mặc định là Cloudinary; "local" dùng thư mục trên máy cho dev/test.
+ */
+public interface ImageStorage {
+
+    /**
+     * @return URL public của ảnh vừa upload
+     */
+    String upload(byte[] content, String contentType) throws IOException;
+
+    void delete(String imageUrl) throws IOException;
+}
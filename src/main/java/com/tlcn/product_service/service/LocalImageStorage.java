@@ -0,0 +1,33 @@
+package com.tlcn.product_service.service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * Lưu ảnh vào thư mục local, trả về URL dạng file://. Dùng khi không có Cloudinary (dev, test).
+ */
+public class LocalImageStorage implements ImageStorage {
+
+    private final Path directory;
+
+    public LocalImageStorage(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public String upload(byte[] content, String contentType) throws IOException {
+        Files.createDirectories(directory);
+        String extension = "image/png".equals(contentType) ? ".png" : ".jpg";
+        Path file = directory.resolve(UUID.randomUUID() + extension);
+        Files.write(file, content);
+        return file.toUri().toString();
+    }
+
+    @Override
+    public void delete(String imageUrl) throws IOException {
+        Files.deleteIfExists(Path.of(URI.create(imageUrl)));
+    }
+}
@@ -0,0 +1,308 @@
+package com.tlcn.product_service.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tlcn.product_service.model.Product;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Cache 2 tầng cho GET /api/products/{id}: L1 trong bộ nhớ (LRU, có giới hạn) và L2 dùng chung trên Redis.
+ * Các miss đồng thời cho cùng một id được gộp lại thành một lần load (single-flight).
+ * Mỗi lần ghi sẽ evict L1 + L2 và phát thông báo qua Redis pub/sub để các instance khác evict L1.
+ * Evict tăng generation của sản phẩm trên Redis; loader chỉ được ghi L2 khi generation không đổi kể từ trước
+ * lúc đọc DB, nên một lần load chậm không thể ghi lại giá trị cũ sau khi đã evict.
+ */
+@Service
+public class ProductCacheService implements MessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductCacheService.class);
+
+    private static final String KEY_PREFIX = "product:cache:";
+    private static final String GENERATION_PREFIX = "product:cache:gen:";
+
+    private static final RedisSerializer<String> STRING = new StringRedisSerializer();
+
+    private static final RedisScript<String> GENERATION = new DefaultRedisScript<>("""
+            return redis.call('GET', KEYS[1]) or ''
+            """, String.class);
+
+    // KEYS[1] = generation, KEYS[2] = value; chỉ ghi nếu generation vẫn là giá trị đọc được trước khi load (ARGV[1])
+    private static final RedisScript<Long> PUT_IF_CURRENT = new DefaultRedisScript<>("""
+            if (redis.call('GET', KEYS[1]) or '') ~= ARGV[1] then return 0 end
+            redis.call('SET', KEYS[2], ARGV[2], 'PX', ARGV[3])
+            return 1
+            """, Long.class);
+
+    private static final RedisScript<Long> INVALIDATE = new DefaultRedisScript<>("""
+            local generation = redis.call('INCR', KEYS[1])
+            redis.call('PEXPIRE', KEYS[1], ARGV[1])
+            redis.call('DEL', KEYS[2])
+            return generation
+            """, Long.class);
+
+    @Autowired
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private SearchResultCache searchResultCache;
+
+    @Value("${product.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${product.cache.l1.max-size:1000}")
+    private int l1MaxSize;
+
+    @Value("${product.cache.l1.ttl:30s}")
+    private Duration l1Ttl;
+
+    @Value("${product.cache.l2.ttl:5m}")
+    private Duration l2Ttl;
+
+    // Sản phẩm đang Flash Sale / hot-stock: stock đổi theo từng đơn nên chỉ cache rất ngắn ở cả L1 và L2
+    @Value("${product.cache.stock-ttl:5s}")
+    private Duration stockTtl;
+
+    @Value("${product.cache.invalidation-channel:product:cache:invalidate}")
+    private String invalidationChannel;
+
+    private Map<Long, CachedProduct> l1;
+
+    private final ConcurrentHashMap<Long, CompletableFuture<Optional<Product>>> inFlight = new ConcurrentHashMap<>();
+
+    private record CachedProduct(Product product, long expiresAt) {
+    }
+
+    @PostConstruct
+    public void init() {
+        int maxSize = l1MaxSize;
+        // LinkedHashMap theo access-order => evict phần tử ít dùng nhất khi vượt quá max-size
+        this.l1 = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedProduct> eldest) {
+                return size() > maxSize;
+            }
+        };
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(invalidationChannel));
+    }
+
+    public Optional<Product> get(Long productId, Supplier<Optional<Product>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+
+        Product cached = getFromL1(productId);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
+        CompletableFuture<Optional<Product>> future = new CompletableFuture<>();
+        CompletableFuture<Optional<Product>> existing = inFlight.putIfAbsent(productId, future);
+        if (existing != null) {
+            // Đã có thread khác đang load id này, chờ kết quả của nó
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+
+        try {
+            Optional<Product> result = getFromL2(productId);
+            boolean cacheable = true;
+            if (result.isEmpty()) {
+                // Đọc generation trước khi load: nếu có evict xen giữa thì kết quả load không được cache
+                String generation = readGeneration(productId);
+                result = loader.get();
+                if (result.isPresent()) {
+                    cacheable = putL2(result.get(), generation);
+                }
+            }
+            if (cacheable) {
+                result.ifPresent(this::putL1);
+            }
+            future.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(productId, future);
+        }
+    }
+
+    /**
+     * Evict ngay lập tức và evict lại sau khi transaction hiện tại commit,
+     * để tránh một request đọc song song nạp lại giá trị cũ trước khi commit.
+     */
+    public void evict(Long productId) {
+        if (productId == null) {
+            return;
+        }
+        evictNow(productId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evictNow(productId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Chỉ evict sau khi transaction hiện tại commit (không có transaction thì evict ngay).
+     * Dùng cho đường giữ hàng: không gọi Redis trong lúc đang khóa row product; load đọc giá trị cũ trước commit
+     * không ghi đè được vì evict sau commit tăng generation.
+     */
+    public void evictAfterCommit(Long productId) {
+        if (productId == null) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evictNow(productId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evictNow(productId);
+            }
+        });
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            Object body = redisTemplate.getValueSerializer().deserialize(message.getBody());
+            Long productId = Long.valueOf(String.valueOf(body));
+            removeL1(productId);
+            searchResultCache.invalidateProduct(productId);
+            log.debug("Received cache invalidation: productId={}", productId);
+        } catch (Exception e) {
+            log.error("Failed to handle cache invalidation message: {}", e.getMessage());
+        }
+    }
+
+    private void evictNow(Long productId) {
+        removeL1(productId);
+        searchResultCache.invalidateProduct(productId);
+        try {
+            execute(INVALIDATE, List.of(GENERATION_PREFIX + productId, KEY_PREFIX + productId),
+                    String.valueOf(l2Ttl.toMillis()));
+            redisTemplate.convertAndSend(invalidationChannel, productId.toString());
+        } catch (Exception e) {
+            log.error("Failed to evict product from Redis cache: productId={}, error={}", productId, e.getMessage());
+        }
+    }
+
+    private Product getFromL1(Long productId) {
+        synchronized (l1) {
+            CachedProduct entry = l1.get(productId);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt() < System.currentTimeMillis()) {
+                l1.remove(productId);
+                return null;
+            }
+            return entry.product();
+        }
+    }
+
+    private void putL1(Product product) {
+        synchronized (l1) {
+            l1.put(product.getId(), new CachedProduct(product, System.currentTimeMillis() + ttl(product, l1Ttl).toMillis()));
+        }
+    }
+
+    private void removeL1(Long productId) {
+        synchronized (l1) {
+            l1.remove(productId);
+        }
+    }
+
+    private Optional<Product> getFromL2(Long productId) {
+        try {
+            String json = redisTemplate.opsForValue().get(KEY_PREFIX + productId);
+            if (json == null) {
+                return Optional.empty();
+            }
+            return Optional.of(objectMapper.readValue(json, Product.class));
+        } catch (Exception e) {
+            log.warn("Failed to read product from Redis cache: productId={}, error={}", productId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    // null => không đọc được generation (Redis lỗi), khi đó không ghi L2
+    private String readGeneration(Long productId) {
+        try {
+            return execute(GENERATION, List.of(GENERATION_PREFIX + productId));
+        } catch (Exception e) {
+            log.warn("Failed to read cache generation: productId={}, error={}", productId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return false nếu sản phẩm đã bị evict trong lúc load (giá trị có thể đã cũ, không nên cache ở L1)
+     */
+    private boolean putL2(Product product, String generation) {
+        if (generation == null) {
+            return true;
+        }
+        try {
+            // Mã hóa bằng value serializer của template để getFromL2 đọc được như giá trị ghi bằng opsForValue()
+            byte[] value = ((RedisSerializer<Object>) redisTemplate.getValueSerializer())
+                    .serialize(objectMapper.writeValueAsString(product));
+            Long written = execute(PUT_IF_CURRENT, List.of(GENERATION_PREFIX + product.getId(), KEY_PREFIX + product.getId()),
+                    generation, new String(value, StandardCharsets.UTF_8), String.valueOf(ttl(product, l2Ttl).toMillis()));
+            return written != null && written == 1;
+        } catch (Exception e) {
+            log.warn("Failed to write product to Redis cache: productId={}, error={}", product.getId(), e.getMessage());
+            return true;
+        }
+    }
+
+    private Duration ttl(Product product, Duration defaultTtl) {
+        return product.isFlashSale() || product.isHotStock() ? stockTtl : defaultTtl;
+    }
+
+    // Dùng StringRedisSerializer cho args/kết quả vì value serializer mặc định của template là JSON
+    @SuppressWarnings("unchecked")
+    private <T> T execute(RedisScript<T> script, List<String> keys, String... args) {
+        return redisTemplate.execute(script, STRING, (RedisSerializer<T>) STRING, keys, (Object[]) args);
+    }
+}
@@ -0,0 +1,160 @@
+package com.tlcn.product_service.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tlcn.product_service.model.Product;
+import com.tlcn.product_service.repository.ProductRepository;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+/**
+ * Export catalog dạng NDJSON/CSV với bộ nhớ không đổi: đọc bằng JDBC cursor (fetch size), ghi từng dòng
+ * ra output và detach entity ngay sau khi ghi nên persistence context không phình theo số sản phẩm.
+ */
+@Service
+public class ProductExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductExportService.class);
+
+    private static final String[] CSV_HEADER = {"id", "name", "description", "category", "price", "stock",
+            "imageUrl", "keycloakId", "isFlashSale", "originalPriceBeforeFs", "flashSaleEndTime"};
+
+    // Flush writer sau mỗi chừng này dòng để client nhận dữ liệu dần
+    private static final int FLUSH_EVERY = 1000;
+
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * @param keycloakId null => toàn bộ sản phẩm đang hoạt động
+     * @return số dòng đã ghi
+     */
+    @Transactional(readOnly = true)
+    public long export(String keycloakId, Format format, OutputStream out) {
+        long count = 0;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        try (Stream<Product> products = keycloakId == null
+                ? productRepository.streamAllActive()
+                : productRepository.streamActiveByKeycloakId(keycloakId)) {
+            if (format == Format.CSV) {
+                writer.write(String.join(",", CSV_HEADER));
+                writer.write('\n');
+            }
+            JsonGenerator generator = format == Format.NDJSON ? newGenerator(writer) : null;
+            var iterator = products.iterator();
+            while (iterator.hasNext()) {
+                Product product = iterator.next();
+                if (generator != null) {
+                    writeJson(generator, product);
+                    generator.flush();
+                    writer.write('\n');
+                } else {
+                    writeCsv(writer, product);
+                }
+                entityManager.detach(product);
+                if (++count % FLUSH_EVERY == 0) {
+                    writer.flush();
+                }
+            }
+            if (generator != null) {
+                generator.close();
+            }
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Exported {} products: keycloakId={}, format={}", count, keycloakId, format);
+        return count;
+    }
+
+    private JsonGenerator newGenerator(Writer writer) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(writer);
+        // Writer được đóng bởi caller (response), mỗi object nằm trên một dòng
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+        return generator;
+    }
+
+    private static void writeJson(JsonGenerator generator, Product product) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", product.getId());
+        generator.writeStringField("name", product.getName());
+        generator.writeStringField("description", product.getDescription());
+        generator.writeStringField("category", product.getCategory());
+        writeNumber(generator, "price", product.getPrice());
+        if (product.getStock() == null) {
+            generator.writeNullField("stock");
+        } else {
+            generator.writeNumberField("stock", product.getStock());
+        }
+        generator.writeStringField("imageUrl", product.getImageUrl());
+        generator.writeStringField("keycloakId", product.getKeycloakId());
+        generator.writeBooleanField("isFlashSale", product.isFlashSale());
+        writeNumber(generator, "originalPriceBeforeFs", product.getOriginalPriceBeforeFs());
+        generator.writeStringField("flashSaleEndTime",
+                product.getFlashSaleEndTime() == null ? null : product.getFlashSaleEndTime().toString());
+        generator.writeEndObject();
+    }
+
+    private static void writeNumber(JsonGenerator generator, String field, Double value) throws IOException {
+        if (value == null) {
+            generator.writeNullField(field);
+        } else {
+            generator.writeNumberField(field, value);
+        }
+    }
+
+    private static void writeCsv(Writer writer, Product product) throws IOException {
+        writer.write(String.valueOf(product.getId()));
+        writeCsvField(writer, product.getName());
+        writeCsvField(writer, product.getDescription());
+        writeCsvField(writer, product.getCategory());
+        writeCsvField(writer, product.getPrice());
+        writeCsvField(writer, product.getStock());
+        writeCsvField(writer, product.getImageUrl());
+        writeCsvField(writer, product.getKeycloakId());
+        writeCsvField(writer, product.isFlashSale());
+        writeCsvField(writer, product.getOriginalPriceBeforeFs());
+        writeCsvField(writer, product.getFlashSaleEndTime());
+        writer.write('\n');
+    }
+
+    // RFC 4180: bọc trong dấu nháy kép khi có dấu phẩy, nháy kép hoặc xuống dòng
+    private static void writeCsvField(Writer writer, Object value) throws IOException {
+        writer.write(',');
+        if (value == null) {
+            return;
+        }
+        String text = value.toString();
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            writer.write(text);
+            return;
+        }
+        writer.write('"');
+        writer.write(text.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
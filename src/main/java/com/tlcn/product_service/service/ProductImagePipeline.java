@@ -0,0 +1,268 @@
+package com.tlcn.product_service.service;
+
+import com.tlcn.product_service.config.ThreadFactories;
+import com.tlcn.product_service.model.ImageStatus;
+import com.tlcn.product_service.model.Product;
+import com.tlcn.product_service.repository.ProductRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upload ảnh sản phẩm ngoài transaction DB. Request chỉ lưu tạm bytes xuống staging dir và commit sản phẩm với
+ * imageStatus = PENDING; sau commit, một executor riêng upload lên {@link ImageStorage}, ghi imageUrl vào DB
+ * (chỉ khi imageUploadId còn khớp, nên kết quả của lần upload cũ hơn bị bỏ qua), đồng bộ ES và xóa ảnh cũ.
+ * Sản phẩm PENDING quá stale-after (instance chết trước khi upload xong) được job sweep upload lại nếu file
+ * staging còn (staging-dir đặt trên volume bền/dùng chung), nếu không thì chuyển sang FAILED.
+ */
+@Service
+public class ProductImagePipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductImagePipeline.class);
+
+    private static final List<String> ALLOWED_CONTENT_TYPES = List.of("image/jpeg", "image/png");
+    private static final long MAX_SIZE = 2 * 1024 * 1024; // 2MB
+
+    @Autowired
+    private ImageStorage imageStorage;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductCacheService productCacheService;
+
+    @Autowired
+    private ProductSearchIndexer productSearchIndexer;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${product.image.staging-dir:${java.io.tmpdir}/product-image-staging}")
+    private Path stagingDir;
+
+    @Value("${product.image.pool-size:4}")
+    private int poolSize;
+
+    @Value("${product.image.queue-capacity:200}")
+    private int queueCapacity;
+
+    @Value("${product.image.stale-after:15m}")
+    private Duration staleAfter;
+
+    @Value("${product.image.sweep-batch-size:100}")
+    private int sweepBatchSize;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private ExecutorService executor;
+
+    // uploadId đang chờ/đang upload trên instance này, sweep không được nhận lại
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    public record StagedImage(String uploadId, Path path, String contentType) {
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(stagingDir);
+        // Pool vẫn giới hạn pool-size upload đồng thời kể cả khi dùng virtual thread
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                ThreadFactories.named("product-image", virtualThreads));
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Kiểm tra và lưu tạm ảnh xuống đĩa. Gọi trước khi ghi sản phẩm để lỗi validate trả về ngay cho client.
+     */
+    public StagedImage stage(MultipartFile image) {
+        if (!ALLOWED_CONTENT_TYPES.contains(image.getContentType())) {
+            throw new ProductService.CustomException("Image must be JPEG or PNG");
+        }
+        if (image.getSize() > MAX_SIZE) {
+            throw new ProductService.CustomException("Image size must not exceed 2MB");
+        }
+        String uploadId = UUID.randomUUID().toString();
+        Path path = stagingDir.resolve(uploadId);
+        try {
+            image.transferTo(path);
+        } catch (IOException e) {
+            throw new ProductService.CustomException("Failed to stage image: " + e.getMessage());
+        }
+        return new StagedImage(uploadId, path, image.getContentType());
+    }
+
+    /**
+     * Upload sau khi transaction hiện tại commit; rollback thì chỉ xóa file tạm.
+     */
+    public void submit(Long productId, StagedImage staged) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        enqueue(productId, staged);
+                    } else {
+                        deleteStaged(staged);
+                    }
+                }
+            });
+        } else {
+            enqueue(productId, staged);
+        }
+    }
+
+    // Bỏ file tạm khi request thất bại trước khi submit
+    public void discard(StagedImage staged) {
+        if (staged != null) {
+            deleteStaged(staged);
+        }
+    }
+
+    /**
+     * Xử lý các upload bị bỏ dở: upload lại từ staging nếu file còn, ngược lại đánh dấu FAILED để client upload lại.
+     */
+    @Scheduled(fixedDelayString = "${product.image.sweep-interval-ms:60000}")
+    public void sweepStaleUploads() {
+        Instant now = Instant.now();
+        Instant cutoff = now.minus(staleAfter);
+        List<Product> stale = productRepository.findStaleImageUploads(ImageStatus.PENDING, cutoff, PageRequest.of(0, sweepBatchSize));
+        for (Product product : stale) {
+            String uploadId = product.getImageUploadId();
+            if (uploadId == null || inFlight.contains(uploadId)) {
+                continue;
+            }
+            Boolean claimed = new TransactionTemplate(transactionManager).execute(status ->
+                    productRepository.claimStaleImageUpload(product.getId(), uploadId, ImageStatus.PENDING, cutoff, now) == 1);
+            if (!Boolean.TRUE.equals(claimed)) {
+                continue;
+            }
+            Path path = stagingDir.resolve(uploadId);
+            if (Files.exists(path)) {
+                log.warn("Resuming abandoned image upload: productId={}, uploadId={}", product.getId(), uploadId);
+                enqueue(product.getId(), new StagedImage(uploadId, path, contentTypeOf(path)));
+            } else {
+                log.warn("Abandoned image upload has no staged file, marking FAILED: productId={}, uploadId={}", product.getId(), uploadId);
+                markFailed(product.getId(), new StagedImage(uploadId, path, null));
+            }
+        }
+    }
+
+    // Content type không được lưu trong DB: nhận biết PNG/JPEG qua magic bytes (chỉ hai loại này được stage)
+    private static String contentTypeOf(Path path) {
+        try (var in = Files.newInputStream(path)) {
+            return in.read() == 0x89 ? "image/png" : "image/jpeg";
+        } catch (IOException e) {
+            return "image/jpeg";
+        }
+    }
+
+    private void enqueue(Long productId, StagedImage staged) {
+        inFlight.add(staged.uploadId());
+        try {
+            executor.execute(() -> {
+                try {
+                    process(productId, staged);
+                } finally {
+                    inFlight.remove(staged.uploadId());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(staged.uploadId());
+            log.error("Image pipeline is full, upload rejected: productId={}", productId);
+            markFailed(productId, staged);
+            deleteStaged(staged);
+        }
+    }
+
+    private void process(Long productId, StagedImage staged) {
+        String imageUrl;
+        try {
+            imageUrl = imageStorage.upload(Files.readAllBytes(staged.path()), staged.contentType());
+        } catch (Exception e) {
+            log.error("Image upload failed: productId={}, error={}", productId, e.getMessage());
+            markFailed(productId, staged);
+            return;
+        } finally {
+            deleteStaged(staged);
+        }
+
+        String previousUrl = new TransactionTemplate(transactionManager).execute(status -> {
+            String current = productRepository.findById(productId).map(Product::getImageUrl).orElse(null);
+            int updated = productRepository.completeImageUpload(productId, staged.uploadId(), imageUrl, ImageStatus.READY);
+            return updated == 1 ? (current == null ? "" : current) : null;
+        });
+        if (previousUrl == null) {
+            // Đã có ảnh mới hơn (hoặc sản phẩm không còn) => ảnh vừa upload không được dùng
+            log.info("Image upload superseded: productId={}, uploadId={}", productId, staged.uploadId());
+            deleteImage(imageUrl);
+            return;
+        }
+        productCacheService.evict(productId);
+        productSearchIndexer.enqueue(productId);
+        log.info("Image uploaded: productId={}, imageUrl={}", productId, imageUrl);
+        if (!previousUrl.isEmpty()) {
+            deleteImage(previousUrl);
+        }
+    }
+
+    private void markFailed(Long productId, StagedImage staged) {
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                    productRepository.markImageUploadFailed(productId, staged.uploadId(), ImageStatus.FAILED));
+            productCacheService.evict(productId);
+            productSearchIndexer.enqueue(productId);
+        } catch (Exception e) {
+            log.error("Failed to mark image upload as failed: productId={}, error={}", productId, e.getMessage());
+        }
+    }
+
+    private void deleteImage(String imageUrl) {
+        try {
+            imageStorage.delete(imageUrl);
+        } catch (Exception e) {
+            log.error("Failed to delete image {}: {}", imageUrl, e.getMessage());
+        }
+    }
+
+    private void deleteStaged(StagedImage staged) {
+        try {
+            Files.deleteIfExists(staged.path());
+        } catch (IOException e) {
+            log.warn("Failed to delete staged image {}: {}", staged.path(), e.getMessage());
+        }
+    }
+}
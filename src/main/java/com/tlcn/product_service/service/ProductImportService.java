@@ -0,0 +1,333 @@
+package com.tlcn.product_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tlcn.product_service.dto.ProductDTO;
+import com.tlcn.product_service.dto.ProductImportResult;
+import com.tlcn.product_service.kafka.ProductEventProducer;
+import com.tlcn.product_service.model.Product;
+import com.tlcn.product_service.repository.ProductRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.EntityManager;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Import hàng loạt sản phẩm từ NDJSON/CSV. Input được đọc dần theo dòng, mỗi chunk được insert trong một
+ * transaction bằng JDBC batch (id lấy từ sequence với pooled optimizer), index qua write-behind indexer (_bulk)
+ * và ghi inventory-update (key = productId) của cả chunk vào outbox một lần. Dòng lỗi (parse/validate) được bỏ qua và báo lại theo số dòng.
+ */
+@Service
+public class ProductImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductImportService.class);
+
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductSearchIndexer productSearchIndexer;
+
+    @Autowired
+    private ProductEventProducer productEventProducer;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${product.import.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${product.import.max-errors:1000}")
+    private int maxErrors;
+
+    public ProductImportResult importProducts(String keycloakId, Format format, InputStream in) {
+        long start = System.nanoTime();
+        ProductImportResult result = new ProductImportResult();
+        List<Product> chunk = new ArrayList<>(chunkSize);
+        List<Long> chunkRows = new ArrayList<>(chunkSize);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            RowReader rows = format == Format.CSV ? new CsvRowReader(reader) : new NdjsonRowReader(reader);
+            long rowNumber = 0;
+            while (true) {
+                ProductDTO dto;
+                try {
+                    dto = rows.next();
+                    rowNumber++;
+                    if (dto == null) {
+                        break;
+                    }
+                } catch (IllegalArgumentException e) {
+                    rowNumber++;
+                    result.setTotalRows(result.getTotalRows() + 1);
+                    addError(result, rowNumber, e.getMessage());
+                    continue;
+                }
+                result.setTotalRows(result.getTotalRows() + 1);
+                String violation = validate(dto);
+                if (violation != null) {
+                    addError(result, rowNumber, violation);
+                    continue;
+                }
+                chunk.add(toProduct(dto, keycloakId));
+                chunkRows.add(rowNumber);
+                if (chunk.size() >= chunkSize) {
+                    flushChunk(keycloakId, chunk, chunkRows, result);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                flushChunk(keycloakId, chunk, chunkRows, result);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long elapsedNanos = System.nanoTime() - start;
+        result.setDurationMs(elapsedNanos / 1_000_000);
+        result.setRowsPerSecond(result.getImported() * 1_000_000_000.0 / Math.max(elapsedNanos, 1));
+        meterRegistry.counter("product.import.rows", "result", "imported").increment(result.getImported());
+        meterRegistry.counter("product.import.rows", "result", "failed").increment(result.getFailed());
+        log.info("Imported {} / {} products for keycloakId={} in {} ms ({} rows/s), {} failed",
+                result.getImported(), result.getTotalRows(), keycloakId, result.getDurationMs(),
+                Math.round(result.getRowsPerSecond()), result.getFailed());
+        return result;
+    }
+
+    // Insert cả chunk trong một transaction; lỗi DB làm cả chunk thất bại và được báo cho từng dòng trong chunk
+    private void flushChunk(String keycloakId, List<Product> chunk, List<Long> chunkRows, ProductImportResult result) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                // Id đã có từ sequence khi persist, INSERT được gửi theo batch lúc flush
+                productRepository.saveAll(chunk);
+                Map<Long, Integer> stockByProduct = new LinkedHashMap<>();
+                for (Product product : chunk) {
+                    stockByProduct.put(product.getId(), product.getStock());
+                    productSearchIndexer.enqueue(product.getId());
+                }
+                productEventProducer.sendInventoryUpdateBatch(keycloakId, stockByProduct, "product-service-import");
+                entityManager.flush();
+                entityManager.clear();
+            });
+            result.setImported(result.getImported() + chunk.size());
+        } catch (Exception e) {
+            log.error("Import chunk of {} rows failed for keycloakId={}: {}", chunk.size(), keycloakId, e.getMessage());
+            for (Long row : chunkRows) {
+                addError(result, row, "Insert failed: " + e.getMessage());
+            }
+        } finally {
+            sample.stop(meterRegistry.timer("product.import.chunk.duration"));
+            chunk.clear();
+            chunkRows.clear();
+        }
+    }
+
+    private String validate(ProductDTO dto) {
+        Set<ConstraintViolation<ProductDTO>> violations = validator.validate(dto);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+                .map(v -> v.getPropertyPath() + ": " + v.getMessage())
+                .sorted()
+                .collect(Collectors.joining("; "));
+    }
+
+    private void addError(ProductImportResult result, long row, String message) {
+        result.setFailed(result.getFailed() + 1);
+        if (result.getErrors().size() < maxErrors) {
+            result.getErrors().add(new ProductImportResult.RowError(row, message));
+        } else {
+            result.setErrorsTruncated(true);
+        }
+    }
+
+    private static Product toProduct(ProductDTO dto, String keycloakId) {
+        Product product = new Product();
+        product.setName(dto.getName());
+        product.setDescription(dto.getDescription());
+        product.setCategory(dto.getCategory());
+        product.setPrice(dto.getPrice());
+        product.setStock(dto.getStock());
+        product.setKeycloakId(keycloakId);
+        product.setDeleted(false);
+        return product;
+    }
+
+    /**
+     * @return null khi hết input; IllegalArgumentException khi dòng hiện tại không đọc được
+     */
+    private interface RowReader {
+        ProductDTO next() throws IOException;
+    }
+
+    private class NdjsonRowReader implements RowReader {
+        private final BufferedReader reader;
+
+        NdjsonRowReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public ProductDTO next() throws IOException {
+            String line = reader.readLine();
+            // Bỏ qua dòng trống
+            while (line != null && line.isBlank()) {
+                line = reader.readLine();
+            }
+            if (line == null) {
+                return null;
+            }
+            try {
+                return objectMapper.readValue(line, ProductDTO.class);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Invalid JSON: " + e.getOriginalMessage());
+            }
+        }
+    }
+
+    // CSV theo RFC 4180 với dòng header: name, description, category, price, stock (thứ tự tùy ý)
+    private static class CsvRowReader implements RowReader {
+        private final Reader reader;
+        private Map<String, Integer> columns;
+        private final StringBuilder field = new StringBuilder();
+
+        CsvRowReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public ProductDTO next() throws IOException {
+            if (columns == null) {
+                List<String> header = readRecord();
+                if (header == null) {
+                    return null;
+                }
+                columns = new HashMap<>();
+                for (int i = 0; i < header.size(); i++) {
+                    columns.put(header.get(i).trim().toLowerCase(Locale.ROOT), i);
+                }
+                if (!columns.containsKey("name") || !columns.containsKey("category")
+                        || !columns.containsKey("price") || !columns.containsKey("stock")) {
+                    throw new ProductService.CustomException("CSV header must contain name, category, price and stock");
+                }
+            }
+            List<String> record = readRecord();
+            while (record != null && record.size() == 1 && record.get(0).isEmpty()) {
+                record = readRecord();
+            }
+            if (record == null) {
+                return null;
+            }
+            ProductDTO dto = new ProductDTO();
+            dto.setName(value(record, "name"));
+            dto.setDescription(value(record, "description"));
+            dto.setCategory(value(record, "category"));
+            dto.setPrice(parseNumber(value(record, "price"), "price", Double::valueOf));
+            dto.setStock(parseNumber(value(record, "stock"), "stock", Integer::valueOf));
+            return dto;
+        }
+
+        private String value(List<String> record, String column) {
+            Integer index = columns.get(column);
+            if (index == null || index >= record.size()) {
+                return null;
+            }
+            String value = record.get(index);
+            return value.isEmpty() ? null : value;
+        }
+
+        private static <T> T parseNumber(String value, String column, Function<String, T> parser) {
+            if (value == null) {
+                return null;
+            }
+            try {
+                return parser.apply(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(column + ": not a number: " + value);
+            }
+        }
+
+        // Đọc một record, field có thể nằm trong dấu nháy kép (chứa dấu phẩy, xuống dòng, "" là một dấu nháy)
+        private List<String> readRecord() throws IOException {
+            List<String> record = new ArrayList<>();
+            field.setLength(0);
+            boolean quoted = false;
+            boolean any = false;
+            int c;
+            while ((c = reader.read()) != -1) {
+                any = true;
+                if (quoted) {
+                    if (c == '"') {
+                        reader.mark(1);
+                        int next = reader.read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            if (next != -1) {
+                                reader.reset();
+                            }
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    record.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n') {
+                    break;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+            }
+            if (!any) {
+                return null;
+            }
+            record.add(field.toString());
+            return record;
+        }
+    }
+}
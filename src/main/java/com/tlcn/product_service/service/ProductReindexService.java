@@ -0,0 +1,447 @@
+package com.tlcn.product_service.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import com.tlcn.product_service.config.ThreadFactories;
+import com.tlcn.product_service.model.Product;
+import com.tlcn.product_service.model.ProductDocument;
+import com.tlcn.product_service.repository.ProductRepository;
+import com.tlcn.product_service.repository.SearchIndexChangeRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Dựng lại index "products" từ Postgres mà không gián đoạn search. Dữ liệu được ghi vào một index mới
+ * (products_v{timestamp}) với refresh tắt: id space được chia thành các range và stream song song bằng
+ * một worker pool cố định, mỗi worker ghi bằng _bulk. Xong thì alias "products" được chuyển sang index mới
+ * trong một lệnh _aliases nguyên tử.
+ * Trong lúc dựng, {@link ProductSearchIndexer} của mọi instance vẫn ghi vào index cũ; các sản phẩm thay đổi
+ * được lấy từ bảng search_index_change (chung cho cả cluster) và replay vào index mới trước khi swap, rồi
+ * replay thêm một lần sau khi swap để phủ các thay đổi giữa hai thời điểm đó.
+ */
+@Service
+public class ProductReindexService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductReindexService.class);
+
+    static final String ALIAS = "products";
+
+    private static final String LOCK_KEY = "product:reindex:lock";
+
+    private static final RedisSerializer<String> STRING = new StringRedisSerializer();
+
+    // Lock của cả job trong cluster, value = tên index của job đang giữ
+    private static final RedisScript<Long> ACQUIRE = new DefaultRedisScript<>("""
+            if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 end
+            return 0
+            """, Long.class);
+
+    private static final RedisScript<Long> RENEW = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    private static final RedisScript<Long> RELEASE = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end
+            return redis.call('DEL', KEYS[1])
+            """, Long.class);
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private SearchIndexChangeRepository searchIndexChangeRepository;
+
+    @Autowired
+    private ProductSearchService productSearchService;
+
+    @Autowired
+    private ElasticsearchOperations elasticsearchOperations;
+
+    @Autowired
+    private ElasticsearchClient elasticsearchClient;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Value("${product.reindex.parallelism:4}")
+    private int parallelism;
+
+    @Value("${product.reindex.range-size:50000}")
+    private long rangeSize;
+
+    @Value("${product.reindex.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${product.reindex.replicas:1}")
+    private int replicas;
+
+    @Value("${product.reindex.refresh-interval:1s}")
+    private String refreshInterval;
+
+    @Value("${product.reindex.delete-old-index:true}")
+    private boolean deleteOldIndex;
+
+    // Lùi mốc replay để phủ transaction bắt đầu trước mốc nhưng commit sau đó và lệch đồng hồ giữa các instance
+    @Value("${product.reindex.replay-margin:1m}")
+    private Duration replayMargin;
+
+    // Lock được gia hạn sau mỗi bulk; instance chết giữa chừng thì lock tự hết hạn sau lock-ttl
+    @Value("${product.reindex.lock-ttl:5m}")
+    private Duration lockTtl;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private final AtomicReference<ReindexProgress> current = new AtomicReference<>();
+
+    private Counter indexedCounter;
+
+    public enum State {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    /**
+     * Tiến độ của lần reindex gần nhất, được trả về qua actuator endpoint "reindex".
+     */
+    public static class ReindexProgress {
+        private final String index;
+        private final Instant startedAt = Instant.now();
+        private volatile Instant finishedAt;
+        private volatile State state = State.RUNNING;
+        private volatile int totalRanges;
+        private final AtomicInteger completedRanges = new AtomicInteger();
+        private final AtomicLong indexed = new AtomicLong();
+        private volatile int replayed;
+        private volatile String error;
+
+        ReindexProgress(String index) {
+            this.index = index;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public Instant getStartedAt() {
+            return startedAt;
+        }
+
+        public Instant getFinishedAt() {
+            return finishedAt;
+        }
+
+        public int getTotalRanges() {
+            return totalRanges;
+        }
+
+        public int getCompletedRanges() {
+            return completedRanges.get();
+        }
+
+        public long getIndexed() {
+            return indexed.get();
+        }
+
+        public int getReplayed() {
+            return replayed;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public double getDocsPerSecond() {
+            Instant end = finishedAt != null ? finishedAt : Instant.now();
+            long millis = Math.max(Duration.between(startedAt, end).toMillis(), 1);
+            return indexed.get() * 1000.0 / millis;
+        }
+
+        private void finish(State state, String error) {
+            this.error = error;
+            this.finishedAt = Instant.now();
+            this.state = state;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        indexedCounter = Counter.builder("product.reindex.indexed")
+                .description("Number of product documents written by the full reindex job")
+                .register(meterRegistry);
+        meterRegistry.gauge("product.reindex.running", List.of(), current,
+                ref -> ref.get() != null && ref.get().getState() == State.RUNNING ? 1 : 0);
+    }
+
+    public ReindexProgress progress() {
+        return current.get();
+    }
+
+    /**
+     * Bắt đầu reindex trên một thread riêng. Chỉ một job được chạy tại một thời điểm trong cả cluster
+     * (lock trên Redis); Redis lỗi thì không chạy, vì hai job song song sẽ tranh nhau swap alias.
+     */
+    public ReindexProgress start() {
+        ReindexProgress previous = current.get();
+        if (previous != null && previous.getState() == State.RUNNING) {
+            throw new ProductService.CustomException("Reindex already running: " + previous.getIndex());
+        }
+        ReindexProgress progress = new ReindexProgress(ALIAS + "_v" + System.currentTimeMillis());
+        if (!acquireLock(progress.getIndex())) {
+            throw new ProductService.CustomException("Reindex already running on another instance");
+        }
+        if (!current.compareAndSet(previous, progress)) {
+            releaseLock(progress.getIndex());
+            throw new ProductService.CustomException("Reindex already running");
+        }
+        ThreadFactories.named("product-reindex", virtualThreads).newThread(() -> run(progress)).start();
+        return progress;
+    }
+
+    private void run(ReindexProgress progress) {
+        String index = progress.getIndex();
+        log.info("Reindex started: index={}", index);
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism,
+                ThreadFactories.named("product-reindex-worker", virtualThreads));
+        try {
+            createIndex(index);
+
+            List<Future<?>> futures = new ArrayList<>();
+            Long minId = productRepository.findMinActiveId();
+            Long maxId = productRepository.findMaxActiveId();
+            if (minId != null && maxId != null) {
+                for (long from = minId; from <= maxId; from += rangeSize) {
+                    long fromId = from;
+                    long toId = Math.min(from + rangeSize, maxId + 1);
+                    futures.add(workers.submit(() -> indexRange(index, fromId, toId, progress)));
+                }
+            }
+            progress.totalRanges = futures.size();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            Instant replayStartedAt = Instant.now();
+            renewLock(index);
+            replay(index, changedSince(progress.getStartedAt()), progress);
+            enableRefresh(index);
+            renewLock(index);
+            List<String> oldIndices = swapAlias(index);
+
+            // Từ đây indexer của mọi instance ghi qua alias vào index mới; replay lại các thay đổi giữa replay và swap
+            replay(index, changedSince(replayStartedAt), progress);
+            // Index mới dùng mapping hiện tại (keycloakId keyword) => bỏ fallback filter vendor
+            productSearchService.checkMapping();
+            if (deleteOldIndex && !oldIndices.isEmpty()) {
+                elasticsearchClient.indices().delete(d -> d.index(oldIndices));
+            }
+            progress.finish(State.COMPLETED, null);
+            log.info("Reindex completed: index={}, indexed={}, replayed={}, docsPerSecond={}",
+                    index, progress.getIndexed(), progress.getReplayed(), Math.round(progress.getDocsPerSecond()));
+        } catch (Exception e) {
+            progress.finish(State.FAILED, e.getMessage());
+            log.error("Reindex failed: index={}, error={}", index, e.getMessage());
+            deleteIndexQuietly(index);
+        } finally {
+            workers.shutdownNow();
+            releaseLock(index);
+        }
+    }
+
+    private void createIndex(String index) {
+        IndexOperations indexOps = elasticsearchOperations.indexOps(IndexCoordinates.of(index));
+        // Tắt refresh và replica trong lúc nạp, bật lại trước khi swap
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("index.refresh_interval", "-1");
+        settings.put("index.number_of_replicas", 0);
+        indexOps.create(settings, indexOps.createMapping(ProductDocument.class));
+    }
+
+    private void indexRange(String index, long fromId, long toId, ReindexProgress progress) {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+        tx.executeWithoutResult(status -> {
+            List<ProductDocument> batch = new ArrayList<>(batchSize);
+            try (Stream<Product> products = productRepository.streamActiveByIdRange(fromId, toId)) {
+                var iterator = products.iterator();
+                while (iterator.hasNext()) {
+                    Product product = iterator.next();
+                    batch.add(ProductSearchIndexer.toDocument(product));
+                    entityManager.detach(product);
+                    if (batch.size() >= batchSize) {
+                        bulk(index, batch, progress);
+                        batch.clear();
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                bulk(index, batch, progress);
+            }
+        });
+        progress.completedRanges.incrementAndGet();
+    }
+
+    private void bulk(String index, List<ProductDocument> documents, ReindexProgress progress) {
+        elasticsearchOperations.save(documents, IndexCoordinates.of(index));
+        progress.indexed.addAndGet(documents.size());
+        indexedCounter.increment(documents.size());
+        renewLock(index);
+    }
+
+    private boolean acquireLock(String index) {
+        try {
+            Long acquired = execute(ACQUIRE, index, String.valueOf(lockTtl.toMillis()));
+            return acquired != null && acquired == 1;
+        } catch (Exception e) {
+            throw new ProductService.CustomException("Reindex lock unavailable: " + e.getMessage());
+        }
+    }
+
+    // Mất lock (hết hạn vì Redis/ES quá chậm) => dừng job trước khi swap alias
+    private void renewLock(String index) {
+        Long renewed = execute(RENEW, index, String.valueOf(lockTtl.toMillis()));
+        if (renewed == null || renewed != 1) {
+            throw new IllegalStateException("Reindex lock lost: " + index);
+        }
+    }
+
+    private void releaseLock(String index) {
+        try {
+            execute(RELEASE, index);
+        } catch (Exception e) {
+            log.warn("Failed to release reindex lock for {}: {}", index, e.getMessage());
+        }
+    }
+
+    // Dùng StringRedisSerializer cho args/kết quả vì value serializer mặc định của template là JSON
+    @SuppressWarnings("unchecked")
+    private <T> T execute(RedisScript<T> script, String... args) {
+        return redisTemplate.execute(script, STRING, (RedisSerializer<T>) STRING, List.of(LOCK_KEY), (Object[]) args);
+    }
+
+    private List<Long> changedSince(Instant since) {
+        return searchIndexChangeRepository.findProductIdsChangedSince(since.minus(replayMargin));
+    }
+
+    // Ghi trạng thái mới nhất của các sản phẩm thay đổi trong lúc dựng index (kể cả sản phẩm đã bị xóa)
+    private void replay(String index, Collection<Long> changes, ReindexProgress progress) {
+        List<Long> ids = new ArrayList<>(changes);
+        for (int i = 0; i < ids.size(); i += batchSize) {
+            List<Long> chunk = ids.subList(i, Math.min(i + batchSize, ids.size()));
+            Set<Long> toDelete = new HashSet<>(chunk);
+            List<ProductDocument> documents = new ArrayList<>();
+            for (Product product : productRepository.findAllById(chunk)) {
+                if (!product.isDeleted()) {
+                    documents.add(ProductSearchIndexer.toDocument(product));
+                    toDelete.remove(product.getId());
+                }
+            }
+            if (!documents.isEmpty()) {
+                elasticsearchOperations.save(documents, IndexCoordinates.of(index));
+            }
+            for (Long id : toDelete) {
+                elasticsearchOperations.delete(String.valueOf(id), IndexCoordinates.of(index));
+            }
+        }
+        progress.replayed += ids.size();
+    }
+
+    private void enableRefresh(String index) throws IOException {
+        elasticsearchClient.indices().putSettings(r -> r
+                .index(index)
+                .settings(s -> s
+                        .refreshInterval(t -> t.time(refreshInterval))
+                        .numberOfReplicas(String.valueOf(replicas))));
+        elasticsearchClient.indices().refresh(r -> r.index(index));
+    }
+
+    /**
+     * Chuyển alias sang index mới trong một lệnh _aliases. Nếu "products" đang là index thật (tạo tự động
+     * trước khi có reindex) thì nó bị xóa trong cùng lệnh đó.
+     *
+     * @return các index versioned cũ mà alias vừa rời khỏi
+     */
+    private List<String> swapAlias(String index) throws IOException {
+        List<String> oldIndices = aliasTargets();
+        boolean concrete = oldIndices.isEmpty() && elasticsearchClient.indices().exists(e -> e.index(ALIAS)).value();
+        elasticsearchClient.indices().updateAliases(u -> {
+            if (concrete) {
+                u.actions(a -> a.removeIndex(r -> r.index(ALIAS)));
+            }
+            for (String old : oldIndices) {
+                u.actions(a -> a.remove(r -> r.index(old).alias(ALIAS)));
+            }
+            return u.actions(a -> a.add(r -> r.index(index).alias(ALIAS).isWriteIndex(true)));
+        });
+        log.info("Alias {} now points to {} (previous: {})", ALIAS, index, concrete ? ALIAS : oldIndices);
+        return oldIndices;
+    }
+
+    private List<String> aliasTargets() throws IOException {
+        try {
+            return new ArrayList<>(elasticsearchClient.indices().getAlias(g -> g.name(ALIAS)).result().keySet());
+        } catch (ElasticsearchException e) {
+            if (e.status() == 404) {
+                return new ArrayList<>();
+            }
+            throw e;
+        }
+    }
+
+    private void deleteIndexQuietly(String index) {
+        try {
+            elasticsearchOperations.indexOps(IndexCoordinates.of(index)).delete();
+        } catch (Exception e) {
+            log.warn("Failed to delete partial reindex index {}: {}", index, e.getMessage());
+        }
+    }
+}
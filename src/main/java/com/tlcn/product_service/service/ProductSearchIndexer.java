@@ -0,0 +1,435 @@
+package com.tlcn.product_service.service;
+
+import com.tlcn.product_service.config.ThreadFactories;
+import com.tlcn.product_service.model.Product;
+import com.tlcn.product_service.model.ProductDocument;
+import com.tlcn.product_service.model.SearchIndexChange;
+import com.tlcn.product_service.repository.ProductDocumentRepository;
+import com.tlcn.product_service.repository.ProductRepository;
+import com.tlcn.product_service.repository.SearchIndexChangeRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind indexer cho index "products". Các thay đổi được đưa vào hàng đợi sau khi transaction commit,
+ * gộp theo productId (chỉ trạng thái mới nhất trong Postgres được index) và flush bằng _bulk
+ * khi đủ batch-size hoặc hết flush-interval. DB commit không còn phải chờ Elasticsearch.
+ * Thay đổi chỉ về stock/giá được gửi dưới dạng partial update thay vì index lại toàn bộ document.
+ * Mỗi thay đổi cũng được ghi vào bảng search_index_change trong transaction của caller và chỉ được đánh dấu
+ * khi _bulk thành công; job recovery nạp lại các row còn treo (instance chết/redeploy trước khi flush).
+ */
+@Service
+public class ProductSearchIndexer {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductSearchIndexer.class);
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductDocumentRepository productDocumentRepository;
+
+    @Autowired
+    private SearchIndexChangeRepository searchIndexChangeRepository;
+
+    @Autowired
+    private SearchResultCache searchResultCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${product.indexer.batch-size:500}")
+    private int batchSize;
+
+    @Value("${product.indexer.flush-interval:1s}")
+    private Duration flushInterval;
+
+    @Value("${product.indexer.max-pending:50000}")
+    private int maxPending;
+
+    @Value("${product.indexer.backpressure-timeout:2s}")
+    private Duration backpressureTimeout;
+
+    @Value("${product.indexer.max-backoff:30s}")
+    private Duration maxBackoff;
+
+    @Value("${product.indexer.recovery-delay:1m}")
+    private Duration recoveryDelay;
+
+    @Value("${product.indexer.recovery-batch-size:5000}")
+    private int recoveryBatchSize;
+
+    @Value("${product.indexer.retention:6h}")
+    private Duration retention;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushNeeded = lock.newCondition();
+    private final Condition spaceAvailable = lock.newCondition();
+
+    // productId -> thay đổi chưa được index (thời điểm thay đổi đầu tiên dùng để tính indexing lag)
+    private final LinkedHashMap<Long, PendingChange> pending = new LinkedHashMap<>();
+
+    // changeIds: các row search_index_change sẽ được đánh dấu khi sản phẩm được index xong
+    private record PendingChange(long since, boolean full, Set<Long> changeIds) {
+
+        PendingChange merge(PendingChange other) {
+            Set<Long> ids = new HashSet<>(changeIds);
+            ids.addAll(other.changeIds);
+            return new PendingChange(Math.min(since, other.since), full || other.full, ids);
+        }
+    }
+
+    // Gom thay đổi của một transaction theo productId => mỗi sản phẩm chỉ ghi một row trước khi commit
+    private class TransactionChanges implements TransactionSynchronization {
+
+        private final Map<Long, Boolean> changes = new LinkedHashMap<>();
+        private List<SearchIndexChange> saved = List.of();
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            saved = persist(changes);
+        }
+
+        @Override
+        public void afterCommit() {
+            saved.forEach(change -> add(change.getProductId(), change.isFull(), change.getId(), System.currentTimeMillis()));
+        }
+    }
+
+    private volatile boolean running = true;
+    private Thread worker;
+
+    private Counter indexedCounter;
+    private Counter failureCounter;
+    private Timer bulkTimer;
+
+    @PostConstruct
+    public void start() {
+        meterRegistry.gauge("product.indexer.queue.depth", List.of(), this, indexer -> indexer.queueDepth());
+        meterRegistry.gauge("product.indexer.lag", List.of(), this, indexer -> indexer.oldestPendingAgeMillis() / 1000.0);
+        indexedCounter = Counter.builder("product.indexer.indexed")
+                .description("Number of product documents written to Elasticsearch")
+                .register(meterRegistry);
+        failureCounter = Counter.builder("product.indexer.failures")
+                .description("Number of failed bulk requests")
+                .register(meterRegistry);
+        bulkTimer = Timer.builder("product.indexer.bulk.duration")
+                .description("Duration of one bulk request to Elasticsearch")
+                .register(meterRegistry);
+
+        // Một worker chạy suốt vòng đời ứng dụng => luôn là platform thread (daemon)
+        worker = ThreadFactories.named("product-search-indexer", false).newThread(this::runLoop);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        lock.lock();
+        try {
+            flushNeeded.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        worker.join(flushInterval.toMillis() * 5);
+    }
+
+    /**
+     * Đánh dấu sản phẩm cần index lại toàn bộ. Trong transaction thì chỉ enqueue sau khi commit.
+     */
+    public void enqueue(Long productId) {
+        enqueue(productId, true);
+    }
+
+    /**
+     * Đánh dấu sản phẩm chỉ thay đổi stock/giá/trạng thái Flash Sale => partial update.
+     */
+    public void enqueueStockAndPrice(Long productId) {
+        enqueue(productId, false);
+    }
+
+    private void enqueue(Long productId, boolean full) {
+        if (productId == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            currentTransactionChanges().changes.merge(productId, full, Boolean::logicalOr);
+        } else {
+            for (SearchIndexChange change : persist(Map.of(productId, full))) {
+                add(change.getProductId(), change.isFull(), change.getId(), System.currentTimeMillis());
+            }
+        }
+    }
+
+    // getSynchronizations() tách riêng theo transaction (kể cả REQUIRES_NEW lồng nhau) => mỗi transaction một bộ gom
+    private TransactionChanges currentTransactionChanges() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof TransactionChanges changes) {
+                return changes;
+            }
+        }
+        TransactionChanges changes = new TransactionChanges();
+        TransactionSynchronizationManager.registerSynchronization(changes);
+        return changes;
+    }
+
+    private List<SearchIndexChange> persist(Map<Long, Boolean> changes) {
+        if (changes.isEmpty()) {
+            return List.of();
+        }
+        Instant now = Instant.now();
+        List<SearchIndexChange> rows = new ArrayList<>(changes.size());
+        changes.forEach((productId, full) -> rows.add(SearchIndexChange.builder()
+                .productId(productId)
+                .full(full)
+                .createdAt(now)
+                .build()));
+        return searchIndexChangeRepository.saveAll(rows);
+    }
+
+    /**
+     * Nạp lại các thay đổi đã commit nhưng chưa được index (instance ghi đã chết, hoặc bulk vẫn đang lỗi).
+     * Chạy trên mọi instance; index lại một sản phẩm nhiều lần là vô hại vì luôn đọc trạng thái mới nhất.
+     */
+    @Scheduled(fixedDelayString = "${product.indexer.recovery-interval-ms:30000}")
+    public void recover() {
+        List<SearchIndexChange> stale = searchIndexChangeRepository.findPendingBefore(
+                Instant.now().minus(recoveryDelay), PageRequest.of(0, recoveryBatchSize));
+        if (stale.isEmpty()) {
+            return;
+        }
+        Set<Long> alreadyPending = pendingChangeIds();
+        int recovered = 0;
+        for (SearchIndexChange change : stale) {
+            if (!alreadyPending.contains(change.getId())) {
+                add(change.getProductId(), change.isFull(), change.getId(), change.getCreatedAt().toEpochMilli());
+                recovered++;
+            }
+        }
+        if (recovered > 0) {
+            meterRegistry.counter("product.indexer.recovered").increment(recovered);
+            log.warn("Recovered {} unindexed search changes older than {}", recovered, recoveryDelay);
+        }
+    }
+
+    // Row đã index chỉ cần giữ đủ lâu để reindex toàn bộ replay được các thay đổi trong lúc dựng index mới
+    @Scheduled(fixedDelayString = "${product.indexer.purge-interval-ms:600000}")
+    public void purge() {
+        int deleted = searchIndexChangeRepository.deleteIndexedBefore(Instant.now().minus(retention));
+        if (deleted > 0) {
+            log.info("Purged {} indexed search change rows older than {}", deleted, retention);
+        }
+    }
+
+    private Set<Long> pendingChangeIds() {
+        lock.lock();
+        try {
+            Set<Long> ids = new HashSet<>();
+            pending.values().forEach(change -> ids.addAll(change.changeIds()));
+            return ids;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int queueDepth() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long oldestPendingAgeMillis() {
+        lock.lock();
+        try {
+            return pending.isEmpty() ? 0 : System.currentTimeMillis() - pending.values().iterator().next().since();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(Long productId, boolean full, Long changeId, long since) {
+        PendingChange change = new PendingChange(since, full, Set.of(changeId));
+        lock.lock();
+        try {
+            // Backpressure: hàng đợi đầy thì writer chờ một khoảng ngắn, hết thời gian vẫn enqueue để không mất thay đổi
+            long waitNanos = backpressureTimeout.toNanos();
+            while (pending.size() >= maxPending && !pending.containsKey(productId) && waitNanos > 0) {
+                waitNanos = spaceAvailable.awaitNanos(waitNanos);
+            }
+            pending.merge(productId, change, PendingChange::merge);
+            if (pending.size() >= batchSize) {
+                flushNeeded.signal();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.merge(productId, change, PendingChange::merge);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runLoop() {
+        long backoffMillis = 0;
+        while (running || queueDepth() > 0) {
+            Map<Long, PendingChange> batch = takeBatch(backoffMillis);
+            if (batch.isEmpty()) {
+                continue;
+            }
+            try {
+                bulkTimer.record(() -> index(batch));
+                indexedCounter.increment(batch.size());
+                // Kết quả search được cache trước khi ES cập nhật có thể đã cũ
+                batch.keySet().forEach(searchResultCache::invalidateProduct);
+                markIndexed(batch);
+                backoffMillis = 0;
+            } catch (Exception e) {
+                failureCounter.increment();
+                backoffMillis = Math.min(Math.max(backoffMillis * 2, 100), maxBackoff.toMillis());
+                log.error("Bulk indexing failed for {} products, retrying in {} ms: {}", batch.size(), backoffMillis, e.getMessage());
+                requeue(batch);
+                if (!running) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private Map<Long, PendingChange> takeBatch(long backoffMillis) {
+        lock.lock();
+        try {
+            if (backoffMillis > 0) {
+                flushNeeded.await(backoffMillis, TimeUnit.MILLISECONDS);
+            } else if (running && pending.size() < batchSize) {
+                flushNeeded.await(flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            Map<Long, PendingChange> batch = new LinkedHashMap<>();
+            var iterator = pending.entrySet().iterator();
+            while (iterator.hasNext() && batch.size() < batchSize) {
+                var entry = iterator.next();
+                batch.put(entry.getKey(), entry.getValue());
+                iterator.remove();
+            }
+            spaceAvailable.signalAll();
+            return batch;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+            return Map.of();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Lỗi ở đây chỉ làm các row bị recovery nạp lại và index thêm một lần
+    private void markIndexed(Map<Long, PendingChange> batch) {
+        List<Long> ids = new ArrayList<>();
+        batch.values().forEach(change -> ids.addAll(change.changeIds()));
+        Instant now = Instant.now();
+        try {
+            for (int from = 0; from < ids.size(); from += batchSize) {
+                searchIndexChangeRepository.markIndexed(ids.subList(from, Math.min(from + batchSize, ids.size())), now);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to mark {} search changes as indexed: {}", ids.size(), e.getMessage());
+        }
+    }
+
+    private void requeue(Map<Long, PendingChange> batch) {
+        lock.lock();
+        try {
+            // Giữ thời điểm thay đổi cũ nhất để lag phản ánh đúng thời gian chờ
+            batch.forEach((id, change) -> pending.merge(id, change, PendingChange::merge));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Đọc trạng thái mới nhất từ Postgres rồi ghi bằng _bulk: sản phẩm đã xóa mềm/không còn thì xóa khỏi index,
+    // thay đổi chỉ về stock/giá thì gửi partial update, document chưa có trong index thì index đầy đủ.
+    private void index(Map<Long, PendingChange> batch) {
+        List<ProductDocument> toSave = new ArrayList<>();
+        Map<Long, Map<String, Object>> toPatch = new LinkedHashMap<>();
+        Map<Long, Product> patched = new LinkedHashMap<>();
+        List<Long> toDelete = new ArrayList<>(batch.keySet());
+        for (Product product : productRepository.findAllById(batch.keySet())) {
+            if (product.isDeleted()) {
+                continue;
+            }
+            toDelete.remove(product.getId());
+            if (batch.get(product.getId()).full()) {
+                toSave.add(toDocument(product));
+            } else {
+                toPatch.put(product.getId(), toStockAndPriceFields(product));
+                patched.put(product.getId(), product);
+            }
+        }
+        if (!toPatch.isEmpty()) {
+            for (Long missingId : productDocumentRepository.partialUpdate(toPatch)) {
+                toSave.add(toDocument(patched.get(missingId)));
+            }
+        }
+        if (!toSave.isEmpty()) {
+            productDocumentRepository.saveAll(toSave);
+        }
+        if (!toDelete.isEmpty()) {
+            productDocumentRepository.deleteAllById(toDelete);
+        }
+        log.debug("Indexed {} products, patched {}, removed {} from Elasticsearch", toSave.size(), toPatch.size(), toDelete.size());
+    }
+
+    private static Map<String, Object> toStockAndPriceFields(Product product) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("stock", product.getStock());
+        fields.put("price", product.getPrice());
+        fields.put("isFlashSale", product.isFlashSale());
+        fields.put("originalPriceBeforeFs", product.getOriginalPriceBeforeFs());
+        fields.put("flashSaleEndTime", product.getFlashSaleEndTime() == null ? null : product.getFlashSaleEndTime().toString());
+        return fields;
+    }
+
+    public static ProductDocument toDocument(Product product) {
+        return ProductDocument.builder()
+                .id(product.getId())
+                .name(product.getName())
+                .description(product.getDescription())
+                .category(product.getCategory())
+                .price(product.getPrice())
+                .stock(product.getStock())
+                .imageUrl(product.getImageUrl())
+                .imageStatus(product.getImageStatus())
+                .keycloakId(product.getKeycloakId())
+                .isDeleted(product.isDeleted())
+                .originalPriceBeforeFs(product.getOriginalPriceBeforeFs())
+                .isFlashSale(product.isFlashSale())
+                .flashSaleEndTime(product.getFlashSaleEndTime())
+                .build();
+    }
+}
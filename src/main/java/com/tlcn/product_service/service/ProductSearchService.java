@@ -0,0 +1,209 @@
+package com.tlcn.product_service.service;
+
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch._types.query_dsl.TextQueryType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tlcn.product_service.dto.CursorPage;
+import com.tlcn.product_service.model.ProductDocument;
+import io.micrometer.core.annotation.Timed;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.Query.PointInTime;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tìm kiếm sản phẩm bằng một bool query duy nhất: multi_match trên name/description/category để tính điểm,
+ * các điều kiện chính xác (isDeleted, keycloakId, isFlashSale) đặt trong filter để ES cache và không tính điểm.
+ * Chế độ cursor dùng search_after trên một point-in-time nên trang sâu không phải trả giá from+size.
+ * keycloakId là keyword trong mapping hiện tại; index tạo trước đó (text) phải được dựng lại bằng reindex
+ * (actuator "reindex"). Cho tới lúc đó filter vendor dùng keycloakId.keyword hoặc match_phrase thay cho term.
+ */
+@Service
+@Timed(value = "product.segment", extraTags = {"segment", "elasticsearch"})
+public class ProductSearchService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductSearchService.class);
+
+    private static final String[] SEARCH_FIELDS = {"name^3", "category^2", "description"};
+
+    @Autowired
+    private ElasticsearchOperations elasticsearchOperations;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${product.search.pit-keep-alive:1m}")
+    private Duration pitKeepAlive;
+
+    // true => dừng khởi động nếu index đang dùng mapping cũ của keycloakId thay vì fallback
+    @Value("${product.search.require-keyword-mapping:false}")
+    private boolean requireKeywordMapping;
+
+    private enum VendorFilter { TERM, KEYWORD_SUBFIELD, PHRASE }
+
+    private volatile VendorFilter vendorFilter = VendorFilter.TERM;
+
+    // Nội dung của cursor token: PIT id và sort values của hit cuối cùng
+    private record SearchCursor(String pitId, List<Object> searchAfter) {
+    }
+
+    @PostConstruct
+    public void init() {
+        checkMapping();
+        if (requireKeywordMapping && vendorFilter != VendorFilter.TERM) {
+            throw new IllegalStateException("Index " + ProductReindexService.ALIAS
+                    + " maps keycloakId as text; run the reindex before starting with product.search.require-keyword-mapping=true");
+        }
+    }
+
+    /**
+     * Đọc mapping đang chạy của keycloakId để chọn cách filter theo vendor. Gọi lúc khởi động và sau khi reindex swap alias.
+     */
+    public void checkMapping() {
+        try {
+            Map<String, Object> mapping = elasticsearchOperations.indexOps(IndexCoordinates.of(ProductReindexService.ALIAS)).getMapping();
+            Object properties = mapping.get("properties");
+            Object field = properties instanceof Map<?, ?> p ? p.get("keycloakId") : null;
+            if (!(field instanceof Map<?, ?> keycloakId) || "keyword".equals(keycloakId.get("type"))) {
+                // Chưa có field (index rỗng/mới) => mapping từ ProductDocument sẽ được dùng
+                vendorFilter = VendorFilter.TERM;
+                return;
+            }
+            boolean keywordSubfield = keycloakId.get("fields") instanceof Map<?, ?> fields && fields.containsKey("keyword");
+            vendorFilter = keywordSubfield ? VendorFilter.KEYWORD_SUBFIELD : VendorFilter.PHRASE;
+            log.error("Index {} maps keycloakId as {} (expected keyword); vendor filter falls back to {} until the index is rebuilt",
+                    ProductReindexService.ALIAS, keycloakId.get("type"), vendorFilter);
+        } catch (Exception e) {
+            log.warn("Failed to read mapping of index {}, assuming keycloakId is keyword: {}", ProductReindexService.ALIAS, e.getMessage());
+        }
+    }
+
+    /**
+     * @param text          từ khóa, rỗng => chỉ áp dụng filter
+     * @param keycloakId    chỉ lấy sản phẩm của vendor này, null => tất cả vendor
+     * @param flashSaleOnly chỉ lấy sản phẩm đang Flash Sale
+     */
+    public Page<ProductDocument> search(String text, String keycloakId, boolean flashSaleOnly, Pageable pageable) {
+        NativeQuery query = NativeQuery.builder()
+                .withQuery(buildQuery(text, keycloakId, flashSaleOnly))
+                .withPageable(pageable)
+                .build();
+
+        SearchHits<ProductDocument> hits = elasticsearchOperations.search(query, ProductDocument.class);
+        return new PageImpl<>(hits.getSearchHits().stream().map(SearchHit::getContent).toList(),
+                pageable, hits.getTotalHits());
+    }
+
+    /**
+     * Cùng điều kiện với {@link #search} nhưng phân trang bằng search_after. Cursor rỗng => mở PIT mới;
+     * client gửi lại nextCursor cùng query/filter để lấy trang tiếp theo. PIT được đóng khi hết dữ liệu,
+     * nếu client bỏ ngang thì PIT tự hết hạn sau pit-keep-alive.
+     */
+    public CursorPage<ProductDocument> searchAfter(String text, String keycloakId, boolean flashSaleOnly,
+                                                   String cursor, int size) {
+        if (size < 1) {
+            throw new ProductService.CustomException("Page size must be greater than zero");
+        }
+        SearchCursor current = cursor == null || cursor.isBlank()
+                ? new SearchCursor(elasticsearchOperations.openPointInTime(IndexCoordinates.of("products"), pitKeepAlive), null)
+                : decode(cursor);
+
+        NativeQueryBuilder builder = NativeQuery.builder()
+                .withQuery(buildQuery(text, keycloakId, flashSaleOnly))
+                // Tiebreak theo id để thứ tự ổn định giữa các trang
+                .withSort(s -> s.score(sc -> sc.order(SortOrder.Desc)))
+                .withSort(s -> s.field(f -> f.field("id").order(SortOrder.Asc)))
+                .withPointInTime(new PointInTime(current.pitId(), pitKeepAlive))
+                .withMaxResults(size + 1)
+                .withTrackTotalHits(false);
+        if (current.searchAfter() != null) {
+            builder.withSearchAfter(current.searchAfter());
+        }
+
+        SearchHits<ProductDocument> hits = elasticsearchOperations.search(builder.build(), ProductDocument.class);
+        List<SearchHit<ProductDocument>> searchHits = hits.getSearchHits();
+        boolean hasNext = searchHits.size() > size;
+        List<SearchHit<ProductDocument>> page = hasNext ? searchHits.subList(0, size) : searchHits;
+        // ES có thể trả về PIT id mới, luôn dùng id mới nhất
+        String pitId = hits.getPointInTimeId() != null ? hits.getPointInTimeId() : current.pitId();
+
+        String nextCursor = null;
+        if (hasNext) {
+            nextCursor = encode(new SearchCursor(pitId, page.get(page.size() - 1).getSortValues()));
+        } else {
+            closePointInTime(pitId);
+        }
+        return new CursorPage<>(page.stream().map(SearchHit::getContent).toList(), page.size(), nextCursor, hasNext);
+    }
+
+    private Query buildQuery(String text, String keycloakId, boolean flashSaleOnly) {
+        return Query.of(q -> q.bool(b -> {
+            if (text == null || text.isBlank()) {
+                b.must(m -> m.matchAll(all -> all));
+            } else {
+                // bool_prefix: từ cuối cùng được match theo prefix, gần với hành vi "Containing" cũ khi gõ dở
+                b.must(m -> m.multiMatch(mm -> mm
+                        .query(text.trim())
+                        .fields(SEARCH_FIELDS[0], SEARCH_FIELDS[1], SEARCH_FIELDS[2])
+                        .type(TextQueryType.BoolPrefix)));
+            }
+            b.filter(f -> f.term(t -> t.field("isDeleted").value(false)));
+            if (keycloakId != null) {
+                switch (vendorFilter) {
+                    case TERM -> b.filter(f -> f.term(t -> t.field("keycloakId").value(keycloakId)));
+                    case KEYWORD_SUBFIELD -> b.filter(f -> f.term(t -> t.field("keycloakId.keyword").value(keycloakId)));
+                    case PHRASE -> b.filter(f -> f.matchPhrase(m -> m.field("keycloakId").query(keycloakId)));
+                }
+            }
+            if (flashSaleOnly) {
+                b.filter(f -> f.term(t -> t.field("isFlashSale").value(true)));
+            }
+            return b;
+        }));
+    }
+
+    private void closePointInTime(String pitId) {
+        try {
+            elasticsearchOperations.closePointInTime(pitId);
+        } catch (Exception e) {
+            log.warn("Failed to close point-in-time, it will expire after {}: {}", pitKeepAlive, e.getMessage());
+        }
+    }
+
+    private String encode(SearchCursor cursor) {
+        try {
+            return CursorPage.encodeCursor(objectMapper.writeValueAsString(cursor));
+        } catch (Exception e) {
+            throw new ProductService.CustomException("Failed to encode search cursor: " + e.getMessage());
+        }
+    }
+
+    private SearchCursor decode(String cursor) {
+        try {
+            SearchCursor decoded = objectMapper.readValue(CursorPage.decodeCursor(cursor), SearchCursor.class);
+            if (decoded.pitId() == null || decoded.searchAfter() == null) {
+                throw new IllegalArgumentException(cursor);
+            }
+            return decoded;
+        } catch (Exception e) {
+            throw new ProductService.CustomException("Invalid cursor");
+        }
+    }
+}
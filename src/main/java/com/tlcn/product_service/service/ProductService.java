@@ -1,29 +1,35 @@
 package com.tlcn.product_service.service;
 
-import com.cloudinary.Cloudinary;
-import com.cloudinary.utils.ObjectUtils;
+import com.tlcn.product_service.dto.CursorPage;
 import com.tlcn.product_service.dto.ProductDTO;
+import com.tlcn.product_service.dto.StockReservationRequest;
 import com.tlcn.product_service.kafka.ProductEventProducer;
+import com.tlcn.product_service.model.ImageStatus;
 import com.tlcn.product_service.model.Product;
 import com.tlcn.product_service.model.ProductDocument;
+import com.tlcn.product_service.model.StockReservationStatus;
 import com.tlcn.product_service.repository.ProductDocumentRepository;
 import com.tlcn.product_service.repository.ProductRepository;
-import jakarta.transaction.Transactional;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.IOException;
-import java.util.Arrays;
-import java.util.Map;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 @Service
+@Timed("product.service")
 public class ProductService {
 
     private static final Logger log = LoggerFactory.getLogger(ProductService.class);
@@ -35,13 +41,31 @@ public class ProductService {
     private ProductDocumentRepository productDocumentRepository;
 
     @Autowired
-    private Cloudinary cloudinary;
+    private ProductImagePipeline productImagePipeline;
 
     @Autowired
     private ProductEventProducer productEventProducer;
 
-    @Value("${cloudinary.folder}")
-    private String cloudinaryFolder;
+    @Autowired
+    private ProductCacheService productCacheService;
+
+    @Autowired
+    private HotStockService hotStockService;
+
+    @Autowired
+    private ProductSearchIndexer productSearchIndexer;
+
+    @Autowired
+    private ProductSearchService productSearchService;
+
+    @Autowired
+    private SearchResultCache searchResultCache;
+
+    @Autowired
+    private ReservationLedger reservationLedger;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     public static class CustomException extends RuntimeException {
         public CustomException(String message) {
@@ -51,17 +75,12 @@ public class ProductService {
 
     @Transactional
     public Product createProduct(ProductDTO productDTO, String keycloakId, MultipartFile image) {
-        String imagePublicId = null;
-        String imageUrl = null;
+        // Ảnh chỉ được lưu tạm ở đây, upload lên storage sau khi commit (không giữ connection DB trong lúc upload)
+        ProductImagePipeline.StagedImage stagedImage = image != null && !image.isEmpty()
+                ? productImagePipeline.stage(image)
+                : null;
 
         try {
-            if (image != null && !image.isEmpty()) {
-                validateImage(image);
-                Map uploadResult = cloudinary.uploader().upload(image.getBytes(), ObjectUtils.asMap("folder", cloudinaryFolder));
-                imagePublicId = (String) uploadResult.get("public_id");
-                imageUrl = cloudinary.url().generate(imagePublicId);
-            }
-
             Product product = new Product();
             product.setName(productDTO.getName());
             product.setDescription(productDTO.getDescription());
@@ -69,40 +88,30 @@ public class ProductService {
             product.setPrice(productDTO.getPrice());
             product.setStock(productDTO.getStock());
             product.setKeycloakId(keycloakId);
-            product.setImageUrl(imageUrl);
             product.setDeleted(false);
+            if (stagedImage != null) {
+                product.setImageStatus(ImageStatus.PENDING);
+                product.setImageUploadId(stagedImage.uploadId());
+                product.setImageStatusAt(Instant.now());
+            }
             product = productRepository.save(product);
-
-            ProductDocument document = new ProductDocument();
-            document.setId(product.getId());
-            document.setName(product.getName());
-            document.setDescription(product.getDescription());
-            document.setCategory(product.getCategory());
-            document.setPrice(product.getPrice());
-            document.setStock(product.getStock());
-            document.setImageUrl(product.getImageUrl());
-            document.setKeycloakId(keycloakId);
-            document.setDeleted(false);
-            productDocumentRepository.save(document);
+            productSearchIndexer.enqueue(product.getId());
+            if (stagedImage != null) {
+                productImagePipeline.submit(product.getId(), stagedImage);
+            }
 
             productEventProducer.sendInventoryUpdate(product.getId(), product.getStock(), "product-service-create");
             log.info("Product created: id={}, keycloakId={}", product.getId(), keycloakId);
             return product;
         } catch (Exception e) {
-            if (imagePublicId != null) {
-                try {
-                    cloudinary.uploader().destroy(imagePublicId, ObjectUtils.emptyMap());
-                } catch (IOException ex) {
-                    log.error("Failed to delete image from Cloudinary: {}", ex.getMessage());
-                }
-            }
+            productImagePipeline.discard(stagedImage);
             log.error("Product creation failed: {}", e.getMessage());
             throw new CustomException("Product creation failed: " + e.getMessage());
         }
     }
 
     public Product getProduct(Long productId) {
-        Product product = productRepository.findByIdAndIsDeletedFalse(productId)
+        Product product = productCacheService.get(productId, () -> productRepository.findByIdAndIsDeletedFalse(productId))
                 .orElseThrow(() -> new CustomException("Product not found with ID: " + productId));
         log.info("Retrieved product: id={}", productId);
         return product;
@@ -110,50 +119,42 @@ public class ProductService {
 
     @Transactional
     public Product updateProduct(Long id, ProductDTO productDTO, String keycloakId, MultipartFile image) {
-        Product product = getProduct(id);
+        // Không đọc qua cache: entity cần được quản lý bởi persistence context và có version mới nhất
+        Product product = productRepository.findByIdAndIsDeletedFalse(id)
+                .orElseThrow(() -> new CustomException("Product not found with ID: " + id));
         if (!product.getKeycloakId().equals(keycloakId)) {
             throw new CustomException("Unauthorized: Vendor mismatch");
         }
 
-        String imagePublicId = null;
-        String imageUrl = product.getImageUrl();
         int oldStock = product.getStock();
 
-        try {
-            if (image != null && !image.isEmpty()) {
-                validateImage(image);
-                if (product.getImageUrl() != null) {
-                    try {
-                        cloudinary.uploader().destroy(extractPublicIdFromUrl(product.getImageUrl()), ObjectUtils.emptyMap());
-                    } catch (IOException e) {
-                        log.error("Failed to delete old image from Cloudinary: {}", e.getMessage());
-                    }
-                }
-                Map uploadResult = cloudinary.uploader().upload(image.getBytes(), ObjectUtils.asMap("folder", cloudinaryFolder));
-                imagePublicId = (String) uploadResult.get("public_id");
-                imageUrl = cloudinary.url().generate(imagePublicId);
-            }
+        if (product.isHotStock() && oldStock != productDTO.getStock()) {
+            throw new CustomException("Stock cannot be changed while the product is in a Flash Sale");
+        }
 
+        // imageUrl cũ được giữ đến khi ảnh mới upload xong; ảnh cũ bị xóa bởi ProductImagePipeline
+        ProductImagePipeline.StagedImage stagedImage = image != null && !image.isEmpty()
+                ? productImagePipeline.stage(image)
+                : null;
+
+        try {
             product.setName(productDTO.getName());
             product.setDescription(productDTO.getDescription());
             product.setCategory(productDTO.getCategory());
             product.setPrice(productDTO.getPrice());
             product.setStock(productDTO.getStock());
-            product.setImageUrl(imageUrl);
             product.setDeleted(false);
+            if (stagedImage != null) {
+                product.setImageStatus(ImageStatus.PENDING);
+                product.setImageUploadId(stagedImage.uploadId());
+                product.setImageStatusAt(Instant.now());
+            }
             product = productRepository.save(product);
-
-            ProductDocument document = productDocumentRepository.findById(id)
-                    .orElseThrow(() -> new CustomException("Product not found in Elasticsearch"));
-            document.setName(product.getName());
-            document.setDescription(product.getDescription());
-            document.setCategory(product.getCategory());
-            document.setPrice(product.getPrice());
-            document.setStock(product.getStock());
-            document.setImageUrl(product.getImageUrl());
-            document.setKeycloakId(keycloakId);
-            document.setDeleted(false);
-            productDocumentRepository.save(document);
+            productCacheService.evict(id);
+            productSearchIndexer.enqueue(id);
+            if (stagedImage != null) {
+                productImagePipeline.submit(id, stagedImage);
+            }
 
             if (oldStock != product.getStock()) {
                 productEventProducer.sendInventoryUpdate(product.getId(), product.getStock(), "product-service-update");
@@ -161,13 +162,7 @@ public class ProductService {
             log.info("Product updated: id={}, keycloakId={}", id, keycloakId);
             return product;
         } catch (Exception e) {
-            if (imagePublicId != null) {
-                try {
-                    cloudinary.uploader().destroy(imagePublicId, ObjectUtils.emptyMap());
-                } catch (IOException ex) {
-                    log.error("Failed to delete image from Cloudinary: {}", ex.getMessage());
-                }
-            }
+            productImagePipeline.discard(stagedImage);
             log.error("Product update failed: {}", e.getMessage());
             throw new CustomException("Product update failed: " + e.getMessage());
         }
@@ -185,9 +180,10 @@ public class ProductService {
         // Đánh dấu xóa mềm
         product.setDeleted(true);
         productRepository.save(product);
+        productCacheService.evict(id);
 
-        // Xóa khỏi Elasticsearch
-        productDocumentRepository.deleteById(id);
+        // Xóa khỏi Elasticsearch (indexer thấy isDeleted = true sẽ xóa document)
+        productSearchIndexer.enqueue(id);
 
         log.info("Product soft-deleted: id={}, keycloakId={}", id, keycloakId);
     }
@@ -198,28 +194,80 @@ public class ProductService {
         return products;
     }
 
+    public CursorPage<Product> getProductsByKeycloakIdAfter(String keycloakId, String cursor, int size) {
+        CursorPage<Product> products = findVendorProductsAfter(keycloakId, false, cursor, size);
+        log.info("Retrieved {} active products for vendor (cursor): keycloakId={}", products.getContent().size(), keycloakId);
+        return products;
+    }
+
     public Page<ProductDocument> searchProductsByKeycloakIdWithoutAuth(String keycloakId, String query, Pageable pageable) {
-        Page<ProductDocument> products = productDocumentRepository
-                .findByKeycloakIdAndIsDeletedFalseAndNameContainingOrKeycloakIdAndIsDeletedFalseAndDescriptionContainingOrKeycloakIdAndIsDeletedFalseAndCategoryContaining(
-                        keycloakId, query, keycloakId, query, keycloakId, query, pageable);
+        Page<ProductDocument> products = productSearchService.search(query, keycloakId, false, pageable);
         log.info("Search returned {} active products for vendor: keycloakId={}, query={}", products.getTotalElements(), keycloakId, query);
         return products;
     }
 
+    public CursorPage<ProductDocument> searchProductsByKeycloakIdAfter(String keycloakId, String query, String cursor, int size) {
+        CursorPage<ProductDocument> products = productSearchService.searchAfter(query, keycloakId, false, cursor, size);
+        log.info("Search (cursor) returned {} active products for vendor: keycloakId={}, query={}", products.getContent().size(), keycloakId, query);
+        return products;
+    }
+
     public Page<ProductDocument> searchProducts(String query, Pageable pageable) {
-        Page<ProductDocument> products = productDocumentRepository
-                .findByIsDeletedFalseAndNameContainingOrIsDeletedFalseAndDescriptionContainingOrIsDeletedFalseAndCategoryContaining(
-                        query, query, query, pageable);
+        Page<ProductDocument> products = searchResultCache.get("search", query, null, pageable,
+                () -> productSearchService.search(query, null, false, pageable));
         log.info("Search returned {} active products: query={}", products.getTotalElements(), query);
         return products;
     }
 
+    // Cursor search không đi qua SearchResultCache: mỗi cursor gắn với một PIT riêng
+    public CursorPage<ProductDocument> searchProductsAfter(String query, String cursor, int size) {
+        CursorPage<ProductDocument> products = productSearchService.searchAfter(query, null, false, cursor, size);
+        log.info("Search (cursor) returned {} active products: query={}", products.getContent().size(), query);
+        return products;
+    }
+
     public Page<Product> getDeletedProductsByVendor(String keycloakId, Pageable pageable) {
         Page<Product> deletedProducts = productRepository.findByKeycloakIdAndIsDeletedTrue(keycloakId, pageable);
         log.info("Retrieved {} deleted products for vendor: keycloakId={}", deletedProducts.getTotalElements(), keycloakId);
         return deletedProducts;
     }
 
+    public CursorPage<Product> getDeletedProductsByVendorAfter(String keycloakId, String cursor, int size) {
+        CursorPage<Product> deletedProducts = findVendorProductsAfter(keycloakId, true, cursor, size);
+        log.info("Retrieved {} deleted products for vendor (cursor): keycloakId={}", deletedProducts.getContent().size(), keycloakId);
+        return deletedProducts;
+    }
+
+    // Lấy size + 1 bản ghi để biết còn trang sau hay không mà không cần COUNT(*)
+    private CursorPage<Product> findVendorProductsAfter(String keycloakId, boolean deleted, String cursor, int size) {
+        if (size < 1) {
+            throw new CustomException("Page size must be greater than zero");
+        }
+        Limit limit = Limit.of(size + 1);
+        List<Product> rows;
+        if (cursor == null || cursor.isBlank()) {
+            rows = productRepository.findByKeycloakIdAndIsDeletedOrderByIdDesc(keycloakId, deleted, limit);
+        } else {
+            rows = productRepository.findByKeycloakIdAndIsDeletedAndIdLessThanOrderByIdDesc(keycloakId, deleted, decodeIdCursor(cursor), limit);
+        }
+        boolean hasNext = rows.size() > size;
+        List<Product> content = hasNext ? rows.subList(0, size) : rows;
+        String nextCursor = hasNext ? CursorPage.encodeCursor("id:" + content.get(content.size() - 1).getId()) : null;
+        return new CursorPage<>(content, content.size(), nextCursor, hasNext);
+    }
+
+    private Long decodeIdCursor(String cursor) {
+        try {
+            String value = CursorPage.decodeCursor(cursor);
+            if (!value.startsWith("id:")) {
+                throw new IllegalArgumentException(value);
+            }
+            return Long.valueOf(value.substring(3));
+        } catch (IllegalArgumentException e) {
+            throw new CustomException("Invalid cursor");
+        }
+    }
+
     public Page<ProductDocument> getFlashSaleProducts(Pageable pageable) {
         Page<ProductDocument> products = productDocumentRepository.findByIsDeletedFalseAndIsFlashSaleTrue(pageable);
         log.info("Retrieved {} active Flash Sale products.", products.getTotalElements());
@@ -227,11 +275,17 @@ public class ProductService {
     }
 
     public Page<ProductDocument> searchFlashSaleProducts(String query, Pageable pageable) {
-        Page<ProductDocument> products = productDocumentRepository.findByIsDeletedFalseAndIsFlashSaleTrueAndNameContainingOrIsDeletedFalseAndIsFlashSaleTrueAndDescriptionContainingOrIsDeletedFalseAndIsFlashSaleTrueAndCategoryContaining(
-                query, query, query, pageable);
+        Page<ProductDocument> products = searchResultCache.get("flash_sale_search", query, null, pageable,
+                () -> productSearchService.search(query, null, true, pageable));
         log.info("Search returned {} active Flash Sale products: query={}", products.getTotalElements(), query);
         return products;
     }
+
+    public CursorPage<ProductDocument> searchFlashSaleProductsAfter(String query, String cursor, int size) {
+        CursorPage<ProductDocument> products = productSearchService.searchAfter(query, null, true, cursor, size);
+        log.info("Search (cursor) returned {} active Flash Sale products: query={}", products.getContent().size(), query);
+        return products;
+    }
     
     @Transactional
     public Product restoreProduct(Long id, String keycloakId) {
@@ -249,20 +303,10 @@ public class ProductService {
         // Khôi phục
         product.setDeleted(false);
         product = productRepository.save(product);
+        productCacheService.evict(id);
 
         // Đồng bộ lại Elasticsearch
-        ProductDocument document = ProductDocument.builder()
-                .id(product.getId())
-                .name(product.getName())
-                .description(product.getDescription())
-                .category(product.getCategory())
-                .price(product.getPrice())
-                .stock(product.getStock())
-                .imageUrl(product.getImageUrl())
-                .keycloakId(product.getKeycloakId())
-                .isDeleted(false)
-                .build();
-        productDocumentRepository.save(document);
+        productSearchIndexer.enqueue(id);
 
         log.info("Product restored: id={}, keycloakId={}", id, keycloakId);
         return product;
@@ -270,86 +314,262 @@ public class ProductService {
 
     @Transactional
     public void reserveStock(Long orderId, Long productId, int quantity) {
-        Product product = productRepository.findById(productId)
-                .orElseThrow(() -> new CustomException("Product not found with ID: " + productId));
+        if (quantity <= 0) {
+            throw new CustomException("Reservation quantity must be positive");
+        }
+
+        // Ghi ledger trước khi trừ kho (cùng transaction): request gửi lại được trả lời từ ledger, không trừ kho lần hai
+        ReservationLedger.Entry duplicate = reservationLedger.claim(orderId, productId, quantity);
+        if (duplicate != null) {
+            answerDuplicateReservation(orderId, productId, duplicate);
+            recordReservation("single", "duplicate");
+            return;
+        }
 
-        if (product.getStock() >= quantity) {
-            int newStock = product.getStock() - quantity;
-            product.setStock(newStock);
-
-            try {
-                productRepository.save(product);
-
-                ProductDocument document = productDocumentRepository.findById(productId)
-                        .orElseThrow(() -> new CustomException("Product not found in Elasticsearch"));
-                document.setStock(newStock);
-                productDocumentRepository.save(document);
-
-                // GỬI PHẢN HỒI THÀNH CÔNG BẰNG PRODUCER
-                productEventProducer.sendStockReservationResponse(orderId, productId, newStock, "SUCCESS");
-
-                // GỬI CẬP NHẬT TỒN KHO CHO CÁC SERVICE KHÁC
-                productEventProducer.sendInventoryUpdate(productId, newStock, "product-service-reservation");
-                log.info("Stock reserved: orderId={}, productId={}, newStock={}", orderId, productId, newStock);
-            } catch (Exception e) {
-                // Nếu lỗi DB/ES, gửi phản hồi FAILED
-                productEventProducer.sendStockReservationResponse(orderId, productId, product.getStock(), "FAILED");
-                log.error("Failed to reserve stock (DB/ES error): {}", e.getMessage());
-                throw new CustomException("Failed to reserve stock: " + e.getMessage());
+        // Sản phẩm Flash Sale ở hot-stock mode: trừ kho trên Redis, flusher sẽ ghi xuống DB/ES
+        if (reserveFromHotStock(orderId, productId, quantity)) {
+            return;
+        }
+
+        // Một câu UPDATE có điều kiện (stock >= quantity) thay cho read-modify-write => không oversell, không lost update
+        int updated = productRepository.decrementStockIfAvailable(productId, quantity);
+        if (updated == 0) {
+            // START hot-stock có thể vừa commit trong lúc câu UPDATE chờ khóa row: ledger đã được nạp, thử lại trên Redis
+            if (reserveFromHotStock(orderId, productId, quantity)) {
+                return;
             }
-        } else {
+            Integer currentStock = productRepository.findStockById(productId).orElse(null);
+            if (currentStock == null) {
+                recordReservation("single", "not_found");
+                throw new CustomException("Product not found with ID: " + productId);
+            }
+
             // GỬI PHẢN HỒI THẤT BẠI BẰNG PRODUCER
-            productEventProducer.sendStockReservationResponse(orderId, productId, product.getStock(), "FAILED");
-            
-            log.warn("Insufficient stock: orderId={}, productId={}, required={}, current={}", orderId, productId, quantity, product.getStock());
+            productEventProducer.sendStockReservationResponse(orderId, productId, currentStock, "FAILED");
+            recordReservation("single", "insufficient_stock");
+
+            log.warn("Insufficient stock: orderId={}, productId={}, required={}, current={}", orderId, productId, quantity, currentStock);
             throw new CustomException("Insufficient stock for product ID: " + productId);
         }
+
+        // Row đã bị khóa bởi transaction hiện tại nên giá trị đọc lại là stock sau khi trừ
+        int newStock = findStockOrThrow(productId);
+        reservationLedger.confirm(orderId, productId, quantity, newStock);
+        productCacheService.evictAfterCommit(productId);
+        productSearchIndexer.enqueueStockAndPrice(productId);
+
+        // GỬI PHẢN HỒI THÀNH CÔNG BẰNG PRODUCER
+        productEventProducer.sendStockReservationResponse(orderId, productId, newStock, "SUCCESS");
+        recordReservation("single", "success");
+
+        // GỬI CẬP NHẬT TỒN KHO CHO CÁC SERVICE KHÁC
+        productEventProducer.sendInventoryUpdate(productId, newStock, "product-service-reservation");
+        log.info("Stock reserved: orderId={}, productId={}, newStock={}", orderId, productId, newStock);
     }
 
-    @Transactional
-    public void rollbackStock(Long productId, int quantity) {
-        if (quantity < 0) {
-            throw new CustomException("Rollback quantity must be positive");
+    /**
+     * @return false nếu sản phẩm không ở hot-stock mode (caller dùng đường DB)
+     */
+    private boolean reserveFromHotStock(Long orderId, Long productId, int quantity) {
+        HotStockLedger.Result hotResult = hotStockService.reserve(productId, quantity);
+        if (hotResult == null) {
+            return false;
         }
+        if (hotResult.status() == HotStockLedger.Status.OK) {
+            reservationLedger.confirm(orderId, productId, quantity, hotResult.stock());
+            productEventProducer.sendStockReservationResponse(orderId, productId, hotResult.stock(), "SUCCESS");
+            recordReservation("hot-stock", "success");
+            log.info("Stock reserved (hot-stock): orderId={}, productId={}, newStock={}", orderId, productId, hotResult.stock());
+            return true;
+        }
+        productEventProducer.sendStockReservationResponse(orderId, productId, hotResult.stock(), "FAILED");
+        recordReservation("hot-stock", "insufficient_stock");
+        log.warn("Insufficient stock (hot-stock): orderId={}, productId={}, required={}, current={}", orderId, productId, quantity, hotResult.stock());
+        throw new CustomException("Insufficient stock for product ID: " + productId);
+    }
 
-        Product product = productRepository.findById(productId)
-                .orElseThrow(() -> new CustomException("Product not found with ID: " + productId));
+    // Request trùng: gửi lại đúng kết quả đã giữ; order đã rollback thì trả FAILED để order-service không chờ mãi
+    private void answerDuplicateReservation(Long orderId, Long productId, ReservationLedger.Entry entry) {
+        if (entry.status() == StockReservationStatus.ROLLED_BACK) {
+            int stock = findStockOrThrow(productId);
+            productEventProducer.sendStockReservationResponse(orderId, productId, stock, "FAILED");
+            log.info("Reservation rejected, order already rolled back: orderId={}, productId={}, stock={}", orderId, productId, stock);
+            return;
+        }
+        int stock = entry.stock() != null ? entry.stock() : findStockOrThrow(productId);
+        productEventProducer.sendStockReservationResponse(orderId, productId, stock, "SUCCESS");
+        log.info("Duplicate reservation answered from ledger: orderId={}, productId={}, stock={}", orderId, productId, stock);
+    }
 
-        int newStock = product.getStock() + quantity;
-        product.setStock(newStock);
+    /**
+     * Áp dụng toàn bộ yêu cầu giữ hàng của một sản phẩm trong một transaction, theo đúng thứ tự nhận.
+     * Mỗi order vẫn nhận phản hồi SUCCESS/FAILED riêng, nhưng chỉ có một lần cập nhật ES và một inventory-update.
+     */
+    @Transactional
+    public void reserveStockBatch(Long productId, List<StockReservationRequest> batch) {
+        List<StockReservationRequest> requests = claimReservations(productId, batch);
+        if (requests.isEmpty()) {
+            return;
+        }
+        if (hotStockService.isEnabled() && reserveStockBatchFromHotStock(productId, requests)) {
+            return;
+        }
 
-        try {
-            productRepository.save(product);
+        List<ReservationOutcome> outcomes = new ArrayList<>(requests.size());
+        Integer runningStock = null;
+        boolean anySuccess = false;
+
+        for (StockReservationRequest request : requests) {
+            int quantity = request.getQuantity();
+            if (quantity > 0 && productRepository.decrementStockIfAvailable(productId, quantity) == 1) {
+                // Sau lần trừ đầu tiên row đã bị khóa nên có thể tính stock cục bộ cho các lần sau
+                runningStock = anySuccess ? runningStock - quantity : findStockOrThrow(productId);
+                anySuccess = true;
+                reservationLedger.confirm(request.getOrderId(), productId, quantity, runningStock);
+                outcomes.add(new ReservationOutcome(request.getOrderId(), runningStock, true));
+            } else {
+                // Chưa trừ được lần nào: START hot-stock có thể vừa commit trong lúc chờ khóa row => chuyển cả batch sang Redis
+                if (outcomes.isEmpty() && quantity > 0 && hotStockService.isEnabled() && reserveStockBatchFromHotStock(productId, requests)) {
+                    return;
+                }
+                if (quantity > 0) {
+                    // Transaction của batch vẫn commit => bỏ claim để order có thể thử lại
+                    reservationLedger.release(request.getOrderId(), productId);
+                }
+                if (runningStock == null) {
+                    runningStock = findStockOrThrow(productId);
+                }
+                log.warn("Insufficient stock: orderId={}, productId={}, required={}, current={}",
+                        request.getOrderId(), productId, quantity, runningStock);
+                outcomes.add(new ReservationOutcome(request.getOrderId(), runningStock, false));
+            }
+        }
 
-            ProductDocument document = productDocumentRepository.findById(productId)
-                    .orElseThrow(() -> new CustomException("Product not found in Elasticsearch"));
-            document.setStock(newStock);
-            productDocumentRepository.save(document);
+        if (anySuccess) {
+            productCacheService.evictAfterCommit(productId);
+            productSearchIndexer.enqueueStockAndPrice(productId);
+        }
 
-            productEventProducer.sendInventoryUpdate(productId, newStock, "product-service-rollback");
-            log.info("Stock rolled back: productId={}, quantity={}, newStock={}", productId, quantity, newStock);
-        } catch (Exception e) {
-            log.error("Failed to rollback stock: {}", e.getMessage());
-            throw new CustomException("Failed to rollback stock: " + e.getMessage());
+        for (ReservationOutcome outcome : outcomes) {
+            productEventProducer.sendStockReservationResponse(outcome.orderId(), productId, outcome.stock(),
+                    outcome.success() ? "SUCCESS" : "FAILED");
+            recordReservation("batch", outcome.success() ? "success" : "insufficient_stock");
         }
+        if (anySuccess) {
+            productEventProducer.sendInventoryUpdate(productId, runningStock, "product-service-reservation");
+        }
+        log.info("Stock batch reserved: productId={}, requests={}, newStock={}", productId, requests.size(), runningStock);
     }
 
-    
+    /**
+     * Trả lời các order của một nhóm sản phẩm mà transaction reserveStockBatch đã rollback (cả ledger claim lẫn phản hồi).
+     * Order đã được giữ hàng bởi transaction trước đó (redelivery) được trả lời lại từ ledger; chỉ order chưa có
+     * reservation nào mới nhận FAILED.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void answerFailedReservationBatch(Long productId, List<StockReservationRequest> requests) {
+        Integer stock = null;
+        for (StockReservationRequest request : requests) {
+            ReservationLedger.Entry entry = reservationLedger.find(request.getOrderId(), productId);
+            if (entry != null) {
+                answerDuplicateReservation(request.getOrderId(), productId, entry);
+                continue;
+            }
+            if (stock == null) {
+                stock = productRepository.findStockById(productId).orElse(0);
+            }
+            productEventProducer.sendStockReservationResponse(request.getOrderId(), productId, stock, "FAILED");
+            recordReservation("batch", "error");
+        }
+    }
 
-    private void validateImage(MultipartFile image) {
-        String contentType = image.getContentType();
-        if (!Arrays.asList("image/jpeg", "image/png").contains(contentType)) {
-            throw new CustomException("Image must be JPEG or PNG");
+    // Ghi ledger cho cả batch trước khi trừ kho; request trùng được trả lời ngay và bị loại khỏi batch
+    private List<StockReservationRequest> claimReservations(Long productId, List<StockReservationRequest> batch) {
+        List<StockReservationRequest> claimed = new ArrayList<>(batch.size());
+        for (StockReservationRequest request : batch) {
+            if (request.getQuantity() > 0) {
+                ReservationLedger.Entry duplicate = reservationLedger.claim(request.getOrderId(), productId, request.getQuantity());
+                if (duplicate != null) {
+                    answerDuplicateReservation(request.getOrderId(), productId, duplicate);
+                    recordReservation("batch", "duplicate");
+                    continue;
+                }
+            }
+            claimed.add(request);
         }
-        long maxSize = 2 * 1024 * 1024; // 2MB
-        if (image.getSize() > maxSize) {
-            throw new CustomException("Image size must not exceed 2MB");
+        return claimed;
+    }
+
+    private boolean reserveStockBatchFromHotStock(Long productId, List<StockReservationRequest> requests) {
+        boolean first = true;
+        for (StockReservationRequest request : requests) {
+            int quantity = request.getQuantity();
+            HotStockLedger.Result result = quantity > 0
+                    ? hotStockService.reserve(productId, quantity)
+                    : new HotStockLedger.Result(HotStockLedger.Status.INSUFFICIENT, 0);
+            if (result == null && first) {
+                return false;
+            }
+            first = false;
+            boolean success = result != null && result.status() == HotStockLedger.Status.OK;
+            if (success) {
+                reservationLedger.confirm(request.getOrderId(), productId, quantity, result.stock());
+            } else if (quantity > 0) {
+                reservationLedger.release(request.getOrderId(), productId);
+            }
+            productEventProducer.sendStockReservationResponse(request.getOrderId(), productId,
+                    result == null ? 0 : result.stock(), success ? "SUCCESS" : "FAILED");
+            recordReservation("hot-stock", success ? "success" : "insufficient_stock");
         }
+        log.info("Stock batch reserved (hot-stock): productId={}, requests={}", productId, requests.size());
+        return true;
+    }
+
+    // product.reservation{mode, outcome}: success | insufficient_stock (phản hồi FAILED) | duplicate | not_found | error (nhóm batch lỗi, phản hồi FAILED)
+    private void recordReservation(String mode, String outcome) {
+        meterRegistry.counter("product.reservation", "mode", mode, "outcome", outcome).increment();
+    }
+
+    private record ReservationOutcome(Long orderId, int stock, boolean success) {
+    }
+
+    private int findStockOrThrow(Long productId) {
+        return productRepository.findStockById(productId)
+                .orElseThrow(() -> new CustomException("Product not found with ID: " + productId));
     }
 
-    private String extractPublicIdFromUrl(String url) {
-        String[] parts = url.split("/");
-        String lastPart = parts[parts.length - 1].split("\\.")[0];
-        return cloudinaryFolder + "/" + lastPart;
+    @Transactional
+    public void rollbackStock(Long orderId, Long productId, int quantity) {
+        if (quantity < 0) {
+            throw new CustomException("Rollback quantity must be positive");
+        }
+
+        if (orderId != null) {
+            // Chỉ cộng lại đúng số đã giữ, một lần; rollback trùng hoặc không có reservation => không làm gì
+            quantity = reservationLedger.rollback(orderId, productId, quantity);
+            if (quantity == 0) {
+                return;
+            }
+        } else {
+            log.warn("Stock rollback without orderId, reservation ledger not checked: productId={}, quantity={}", productId, quantity);
+        }
+
+        HotStockLedger.Result hotResult = hotStockService.release(productId, quantity);
+        if (hotResult != null) {
+            log.info("Stock rolled back (hot-stock): orderId={}, productId={}, quantity={}, newStock={}", orderId, productId, quantity, hotResult.stock());
+            return;
+        }
+
+        int updated = productRepository.incrementStock(productId, quantity);
+        if (updated == 0) {
+            throw new CustomException("Product not found with ID: " + productId);
+        }
+
+        int newStock = findStockOrThrow(productId);
+        productCacheService.evictAfterCommit(productId);
+        productSearchIndexer.enqueueStockAndPrice(productId);
+
+        productEventProducer.sendInventoryUpdate(productId, newStock, "product-service-rollback");
+        log.info("Stock rolled back: orderId={}, productId={}, quantity={}, newStock={}", orderId, productId, quantity, newStock);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,194 @@
+package com.tlcn.product_service.service;
+
+import com.tlcn.product_service.model.StockReservation;
+import com.tlcn.product_service.model.StockReservationStatus;
+import com.tlcn.product_service.repository.StockReservationRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ledger idempotency cho reservation: bảng stock_reservation (unique orderId + productId) được ghi trong cùng
+ * transaction với câu trừ kho, nên request bị gửi lại không trừ kho lần hai và rollback chỉ cộng lại đúng số
+ * đã giữ, một lần. Phía trước là LRU trong bộ nhớ (chỉ chứa trạng thái đã commit) để request trùng được trả lời
+ * mà không chạm vào bảng product.
+ */
+@Service
+public class ReservationLedger {
+
+    private static final Logger log = LoggerFactory.getLogger(ReservationLedger.class);
+
+    @Autowired
+    private StockReservationRepository stockReservationRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${product.reservation.ledger.cache-size:100000}")
+    private int cacheSize;
+
+    @Value("${product.reservation.ledger.retention:7d}")
+    private Duration retention;
+
+    public record Entry(StockReservationStatus status, int quantity, Integer stock) {
+
+        static Entry of(StockReservation reservation) {
+            return new Entry(reservation.getStatus(), reservation.getQuantity(), reservation.getStockAfter());
+        }
+    }
+
+    private record Key(Long orderId, Long productId) {
+    }
+
+    private Map<Key, Entry> cache;
+
+    @PostConstruct
+    public void init() {
+        int maxSize = cacheSize;
+        // LinkedHashMap theo access-order => evict phần tử ít dùng nhất khi vượt quá cache-size
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Ghi nhận (orderId, productId) trước khi trừ kho, trong transaction của caller.
+     *
+     * @return null nếu là request mới (caller tiếp tục trừ kho); ngược lại trạng thái đã có của request trùng
+     */
+    public Entry claim(Long orderId, Long productId, int quantity) {
+        Entry cached = lookup(orderId, productId);
+        if (cached != null) {
+            return cached;
+        }
+        if (stockReservationRepository.claim(orderId, productId, quantity,
+                StockReservationStatus.RESERVED.name(), Instant.now()) == 1) {
+            record("claimed");
+            return null;
+        }
+        record("duplicate");
+        Entry existing = stockReservationRepository.findByOrderIdAndProductId(orderId, productId)
+                .map(Entry::of)
+                .orElseThrow(() -> new IllegalStateException("Reservation ledger conflict without row: orderId=" + orderId));
+        rememberAfterCommit(orderId, productId, existing);
+        return existing;
+    }
+
+    /**
+     * Trạng thái đã commit của (orderId, productId), null nếu chưa từng được giữ hàng.
+     */
+    public Entry find(Long orderId, Long productId) {
+        Entry cached = lookup(orderId, productId);
+        if (cached != null) {
+            return cached;
+        }
+        return stockReservationRepository.findByOrderIdAndProductId(orderId, productId).map(Entry::of).orElse(null);
+    }
+
+    /**
+     * Trừ kho thành công: lưu stock sau khi trừ để trả lời lại request trùng.
+     */
+    public void confirm(Long orderId, Long productId, int quantity, int stock) {
+        stockReservationRepository.recordStock(orderId, productId, stock);
+        rememberAfterCommit(orderId, productId, new Entry(StockReservationStatus.RESERVED, quantity, stock));
+    }
+
+    /**
+     * Trừ kho thất bại trong batch (transaction vẫn commit): bỏ claim để request sau có thể thử lại.
+     */
+    public void release(Long orderId, Long productId) {
+        stockReservationRepository.deleteClaim(orderId, productId, StockReservationStatus.RESERVED);
+    }
+
+    /**
+     * Đánh dấu reservation đã rollback, trong transaction cộng kho của caller.
+     *
+     * @return số lượng được cộng lại (số đã giữ trong ledger), 0 nếu không có reservation đang giữ
+     */
+    public int rollback(Long orderId, Long productId, int requestedQuantity) {
+        Entry cached = lookup(orderId, productId);
+        if (cached != null && cached.status() == StockReservationStatus.ROLLED_BACK) {
+            log.info("Duplicate stock rollback ignored: orderId={}, productId={}", orderId, productId);
+            return 0;
+        }
+        Instant now = Instant.now();
+        if (stockReservationRepository.transition(orderId, productId,
+                StockReservationStatus.RESERVED, StockReservationStatus.ROLLED_BACK, now) == 0) {
+            // Chưa từng giữ hàng (rollback đến trước reservation) => ghi tombstone để reservation đến sau bị bỏ qua
+            stockReservationRepository.claim(orderId, productId, 0, StockReservationStatus.ROLLED_BACK.name(), now);
+            rememberAfterCommit(orderId, productId, new Entry(StockReservationStatus.ROLLED_BACK, 0, null));
+            log.warn("Stock rollback ignored, no active reservation: orderId={}, productId={}, quantity={}",
+                    orderId, productId, requestedQuantity);
+            record("rollback_ignored");
+            return 0;
+        }
+        StockReservation reservation = stockReservationRepository.findByOrderIdAndProductId(orderId, productId)
+                .orElseThrow(() -> new IllegalStateException("Reservation disappeared: orderId=" + orderId));
+        if (reservation.getQuantity() != requestedQuantity) {
+            log.warn("Rollback quantity {} differs from reserved quantity {} for orderId={}, productId={}; crediting reserved quantity",
+                    requestedQuantity, reservation.getQuantity(), orderId, productId);
+        }
+        rememberAfterCommit(orderId, productId, Entry.of(reservation));
+        return reservation.getQuantity();
+    }
+
+    // Ledger chỉ cần giữ đủ lâu để phủ cửa sổ redelivery/retry của order-service
+    @Scheduled(fixedDelayString = "${product.reservation.ledger.purge-interval-ms:3600000}")
+    @Transactional
+    public void purge() {
+        int deleted = stockReservationRepository.deleteCreatedBefore(Instant.now().minus(retention));
+        if (deleted > 0) {
+            log.info("Purged {} reservation ledger rows older than {}", deleted, retention);
+        }
+    }
+
+    private Entry lookup(Long orderId, Long productId) {
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(new Key(orderId, productId));
+        }
+        record(entry == null ? "cache_miss" : "cache_hit");
+        return entry;
+    }
+
+    // Chỉ cache trạng thái đã commit: claim bị rollback không được để lại trong LRU
+    private void rememberAfterCommit(Long orderId, Long productId, Entry entry) {
+        Key key = new Key(orderId, productId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    put(key, entry);
+                }
+            });
+        } else {
+            put(key, entry);
+        }
+    }
+
+    private void put(Key key, Entry entry) {
+        synchronized (cache) {
+            cache.put(key, entry);
+        }
+    }
+
+    private void record(String result) {
+        meterRegistry.counter("product.reservation.ledger", "result", result).increment();
+    }
+}
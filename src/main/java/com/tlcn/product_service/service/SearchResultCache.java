@@ -0,0 +1,155 @@
+package com.tlcn.product_service.service;
+
+import com.tlcn.product_service.model.ProductDocument;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Cache kết quả tìm kiếm TTL ngắn cho các endpoint search public. Key gồm endpoint, query đã chuẩn hóa,
+ * page, size và filter. Các request giống nhau chạy đồng thời chỉ gọi ES một lần. Khi một sản phẩm
+ * thay đổi, các trang đang chứa sản phẩm đó bị xóa khỏi cache ngay.
+ */
+@Service
+public class SearchResultCache {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${product.search-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${product.search-cache.ttl:5s}")
+    private Duration ttl;
+
+    @Value("${product.search-cache.max-entries:1000}")
+    private int maxEntries;
+
+    private record Key(String endpoint, String query, String filter, int page, int size) {
+    }
+
+    private record Entry(Page<ProductDocument> page, long expiresAt, Set<Long> productIds) {
+    }
+
+    private final Object lock = new Object();
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // productId -> các key có chứa sản phẩm đó, dùng để invalidate sớm
+    private final Map<Long, Set<Key>> keysByProduct = new HashMap<>();
+
+    private final ConcurrentHashMap<Key, CompletableFuture<Page<ProductDocument>>> inFlight = new ConcurrentHashMap<>();
+
+    public Page<ProductDocument> get(String endpoint, String query, String filter, Pageable pageable,
+                                     Supplier<Page<ProductDocument>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        Key key = new Key(endpoint, normalize(query), filter, pageable.getPageNumber(), pageable.getPageSize());
+
+        Page<ProductDocument> cached = lookup(key);
+        if (cached != null) {
+            record(endpoint, "hit");
+            return cached;
+        }
+
+        CompletableFuture<Page<ProductDocument>> future = new CompletableFuture<>();
+        CompletableFuture<Page<ProductDocument>> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            record(endpoint, "coalesced");
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+
+        record(endpoint, "miss");
+        try {
+            Page<ProductDocument> result = loader.get();
+            store(key, result);
+            future.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    public void invalidateProduct(Long productId) {
+        synchronized (lock) {
+            Set<Key> keys = keysByProduct.remove(productId);
+            if (keys != null) {
+                keys.forEach(this::removeEntry);
+            }
+        }
+    }
+
+    private Page<ProductDocument> lookup(Key key) {
+        synchronized (lock) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt() < System.currentTimeMillis()) {
+                removeEntry(key);
+                return null;
+            }
+            return entry.page();
+        }
+    }
+
+    private void store(Key key, Page<ProductDocument> page) {
+        Set<Long> productIds = page.getContent().stream().map(ProductDocument::getId).collect(Collectors.toSet());
+        synchronized (lock) {
+            removeEntry(key);
+            entries.put(key, new Entry(page, System.currentTimeMillis() + ttl.toMillis(), productIds));
+            productIds.forEach(id -> keysByProduct.computeIfAbsent(id, k -> new HashSet<>()).add(key));
+            while (entries.size() > maxEntries) {
+                removeEntry(entries.keySet().iterator().next());
+            }
+        }
+    }
+
+    private void removeEntry(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return;
+        }
+        for (Long id : entry.productIds()) {
+            Set<Key> keys = keysByProduct.get(id);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByProduct.remove(id);
+                }
+            }
+        }
+    }
+
+    private void record(String endpoint, String result) {
+        meterRegistry.counter("product.search.cache", "endpoint", endpoint, "result", result).increment();
+    }
+
+    private static String normalize(String query) {
+        return query == null ? "" : query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+}
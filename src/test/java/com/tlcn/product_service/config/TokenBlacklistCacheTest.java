@@ -0,0 +1,18 @@
+package com.tlcn.product_service.config;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBlacklistCacheTest {
+
+    @Test
+    void addsOnlyMissingNotificationFlags() {
+        assertThat(TokenBlacklistCache.missingNotifyFlags("")).isEqualTo("Kg$x");
+        // Giữ nguyên flag của client khác (E, l), chỉ bổ sung phần thiếu
+        assertThat(TokenBlacklistCache.missingNotifyFlags("El")).isEqualTo("Kg$x");
+        assertThat(TokenBlacklistCache.missingNotifyFlags("Kx")).isEqualTo("g$");
+        assertThat(TokenBlacklistCache.missingNotifyFlags("KA")).isEmpty();
+        assertThat(TokenBlacklistCache.missingNotifyFlags("EA")).isEqualTo("K");
+    }
+}
@@ -0,0 +1,125 @@
+package com.tlcn.product_service.kafka;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tlcn.product_service.avro.InventoryUpdateEvent;
+import com.tlcn.product_service.avro.ReservationStatus;
+import com.tlcn.product_service.avro.StockReservationRequestEvent;
+import com.tlcn.product_service.avro.StockReservationResponseEvent;
+import com.tlcn.product_service.avro.StockRollbackRequestEvent;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private EventCodec codec;
+
+    @BeforeEach
+    void setUp() {
+        codec = new EventCodec();
+        ReflectionTestUtils.setField(codec, "encoding", "avro");
+    }
+
+    @Test
+    void decodesLegacyJsonWithoutContentTypeHeader() throws Exception {
+        Map<String, Object> data = new HashMap<>();
+        data.put("orderId", 42L);
+        data.put("productId", 7L);
+        data.put("quantity", 3);
+        data.put("requestedBy", "order-service"); // field không có trong schema
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("stock-reservation-request", 0, 0L, "7",
+                objectMapper.writeValueAsBytes(data));
+
+        StockReservationRequestEvent event = codec.decode(record, StockReservationRequestEvent.class);
+
+        assertThat(event.getOrderId()).isEqualTo(42L);
+        assertThat(event.getProductId()).isEqualTo(7L);
+        assertThat(event.getQuantity()).isEqualTo(3);
+    }
+
+    @Test
+    void roundTripsAvroThroughContentTypeHeader() {
+        StockRollbackRequestEvent sent = StockRollbackRequestEvent.newBuilder()
+                .setOrderId(null)
+                .setProductId(9L)
+                .setQuantity(2)
+                .build();
+        EventCodec.Encoded encoded = codec.encode(sent);
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("stock-rollback-request", 0, 0L, "9", encoded.body());
+        record.headers().add(encoded.header());
+
+        assertThat(encoded.contentType()).isEqualTo(EventCodec.AVRO);
+        assertThat(codec.decode(record, StockRollbackRequestEvent.class)).isEqualTo(sent);
+    }
+
+    @Test
+    void jsonEncodingKeepsExistingFieldNames() throws Exception {
+        ReflectionTestUtils.setField(codec, "encoding", "json");
+        EventCodec.Encoded encoded = codec.encode(response());
+
+        Map<String, Object> json = objectMapper.readValue(encoded.body(), new TypeReference<>() {
+        });
+        assertThat(encoded.contentType()).isEqualTo(EventCodec.JSON);
+        assertThat(json).containsEntry("orderId", 42).containsEntry("productId", 7)
+                .containsEntry("newStock", 97).containsEntry("status", "SUCCESS");
+        assertThat(codec.decode(encoded.body(), encoded.contentType(), StockReservationResponseEvent.class)).isEqualTo(response());
+    }
+
+    @Test
+    void outboxPayloadRoundTripsBinaryBody() {
+        EventCodec.Encoded encoded = codec.encode(inventoryUpdate());
+
+        EventCodec.Encoded restored = EventCodec.fromOutboxPayload(EventCodec.toOutboxPayload(encoded), encoded.contentType());
+
+        assertThat(codec.decode(restored.body(), restored.contentType(), InventoryUpdateEvent.class)).isEqualTo(inventoryUpdate());
+    }
+
+    @Test
+    void avroIsSmallerThanJson() throws Exception {
+        assertThat(codec.toAvro(response()).length).isLessThan(objectMapper.writeValueAsBytes(responseMap()).length);
+        assertThat(codec.toAvro(inventoryUpdate()).length).isLessThan(objectMapper.writeValueAsBytes(inventoryUpdateMap()).length);
+    }
+
+    private static StockReservationResponseEvent response() {
+        return StockReservationResponseEvent.newBuilder()
+                .setOrderId(42L)
+                .setProductId(7L)
+                .setNewStock(97)
+                .setStatus(ReservationStatus.SUCCESS)
+                .build();
+    }
+
+    private static Map<String, Object> responseMap() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("orderId", 42L);
+        data.put("productId", 7L);
+        data.put("newStock", 97);
+        data.put("status", "SUCCESS");
+        return data;
+    }
+
+    private static InventoryUpdateEvent inventoryUpdate() {
+        return InventoryUpdateEvent.newBuilder()
+                .setProductId(7L)
+                .setNewStock(97)
+                .setSource("product-service-reservation")
+                .build();
+    }
+
+    private static Map<String, Object> inventoryUpdateMap() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("productId", 7L);
+        data.put("newStock", 97);
+        data.put("source", "product-service-reservation");
+        return data;
+    }
+}
@@ -0,0 +1,173 @@
+package com.tlcn.product_service.repository;
+
+import com.tlcn.product_service.kafka.ProductEventProducer;
+import com.tlcn.product_service.model.Product;
+import com.tlcn.product_service.model.StockReservation;
+import com.tlcn.product_service.model.StockReservationStatus;
+import com.tlcn.product_service.service.HotStockService;
+import com.tlcn.product_service.service.ProductCacheService;
+import com.tlcn.product_service.service.ProductImagePipeline;
+import com.tlcn.product_service.service.ProductSearchIndexer;
+import com.tlcn.product_service.service.ProductSearchService;
+import com.tlcn.product_service.service.ProductService;
+import com.tlcn.product_service.service.ReservationLedger;
+import com.tlcn.product_service.service.SearchResultCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:stock;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=30000",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.datasource.hikari.maximum-pool-size=16",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ProductService.class, ReservationLedger.class, ProductRepositoryConcurrencyTest.Metrics.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ProductRepositoryConcurrencyTest {
+
+    private static final int INITIAL_STOCK = 1000;
+    private static final int REQUESTS = 3000;
+    private static final int THREADS = 16;
+
+    @TestConfiguration
+    static class Metrics {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private StockReservationRepository stockReservationRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Kafka / Elasticsearch / Redis được mock; hotStockService.reserve trả null => hot-stock tắt, đi đường DB
+    @MockBean
+    private ProductEventProducer productEventProducer;
+    @MockBean
+    private HotStockService hotStockService;
+    @MockBean
+    private ProductCacheService productCacheService;
+    @MockBean
+    private ProductSearchIndexer productSearchIndexer;
+    @MockBean
+    private ProductSearchService productSearchService;
+    @MockBean
+    private SearchResultCache searchResultCache;
+    @MockBean
+    private ProductDocumentRepository productDocumentRepository;
+    @MockBean
+    private ProductImagePipeline productImagePipeline;
+
+    @Test
+    void parallelReservationsNeverOversell() throws Exception {
+        Product product = new Product();
+        product.setName("hot-sku");
+        product.setCategory("test");
+        product.setPrice(10.0);
+        product.setStock(INITIAL_STOCK);
+        product.setKeycloakId("vendor");
+        Long productId = productRepository.save(product).getId();
+        long initialVersion = productRepository.findById(productId).orElseThrow().getVersion();
+
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                long orderId = i + 1;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        productService.reserveStock(orderId, productId, 1);
+                    } catch (ProductService.CustomException e) {
+                        failures.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Product reloaded = productRepository.findById(productId).orElseThrow();
+        assertThat(reloaded.getStock()).isZero();
+        // Mỗi lần trừ thành công tăng đúng một version => không có lost update
+        assertThat(reloaded.getVersion()).isEqualTo(initialVersion + INITIAL_STOCK);
+        assertThat(failures.get()).isEqualTo(REQUESTS - INITIAL_STOCK);
+        verify(productEventProducer, times(INITIAL_STOCK))
+                .sendStockReservationResponse(anyLong(), eq(productId), anyInt(), eq("SUCCESS"));
+        verify(productEventProducer, times(REQUESTS - INITIAL_STOCK))
+                .sendStockReservationResponse(anyLong(), eq(productId), anyInt(), eq("FAILED"));
+
+        // Claim của request thất bại rollback cùng transaction => chỉ còn một row ledger cho mỗi SUCCESS,
+        // mỗi row giữ đúng một giá trị stock sau khi trừ
+        List<StockReservation> ledger = stockReservationRepository.findAll();
+        assertThat(ledger).hasSize(INITIAL_STOCK)
+                .allSatisfy(r -> assertThat(r.getStatus()).isEqualTo(StockReservationStatus.RESERVED));
+        assertThat(ledger.stream().map(StockReservation::getStockAfter).distinct())
+                .containsExactlyInAnyOrderElementsOf(IntStream.range(0, INITIAL_STOCK).boxed().toList());
+    }
+
+    @Test
+    void reservationLargerThanStockIsRejected() {
+        Product product = new Product();
+        product.setName("small-sku");
+        product.setCategory("test");
+        product.setPrice(5.0);
+        product.setStock(2);
+        product.setKeycloakId("vendor");
+        Long productId = productRepository.save(product).getId();
+
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Integer updated = tx.execute(status -> productRepository.decrementStockIfAvailable(productId, 3));
+
+        assertThat(updated).isZero();
+        assertThat(productRepository.findStockById(productId)).contains(2);
+    }
+}
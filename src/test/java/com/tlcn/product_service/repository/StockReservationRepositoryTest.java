@@ -0,0 +1,56 @@
+package com.tlcn.product_service.repository;
+
+import com.tlcn.product_service.model.StockReservationStatus;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:ledger;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class StockReservationRepositoryTest {
+
+    private static final String RESERVED = StockReservationStatus.RESERVED.name();
+
+    @Autowired
+    private StockReservationRepository stockReservationRepository;
+
+    @Test
+    void redeliveredReservationIsNotClaimedTwice() {
+        Instant now = Instant.now();
+
+        assertThat(stockReservationRepository.claim(1L, 7L, 3, RESERVED, now)).isEqualTo(1);
+        stockReservationRepository.recordStock(1L, 7L, 97);
+        assertThat(stockReservationRepository.claim(1L, 7L, 3, RESERVED, now)).isZero();
+        assertThat(stockReservationRepository.claim(1L, 8L, 3, RESERVED, now)).isEqualTo(1);
+
+        assertThat(stockReservationRepository.findByOrderIdAndProductId(1L, 7L)).hasValueSatisfying(r -> {
+            assertThat(r.getStatus()).isEqualTo(StockReservationStatus.RESERVED);
+            assertThat(r.getStockAfter()).isEqualTo(97);
+        });
+    }
+
+    @Test
+    void rollbackTransitionsOnlyOnce() {
+        Instant now = Instant.now();
+        stockReservationRepository.claim(2L, 7L, 5, RESERVED, now);
+
+        assertThat(stockReservationRepository.transition(2L, 7L,
+                StockReservationStatus.RESERVED, StockReservationStatus.ROLLED_BACK, now)).isEqualTo(1);
+        assertThat(stockReservationRepository.transition(2L, 7L,
+                StockReservationStatus.RESERVED, StockReservationStatus.ROLLED_BACK, now)).isZero();
+        // release() chỉ xóa claim RESERVED, tombstone/row đã rollback được giữ lại
+        assertThat(stockReservationRepository.deleteClaim(2L, 7L, StockReservationStatus.RESERVED)).isZero();
+    }
+}
@@ -0,0 +1,124 @@
+package com.tlcn.product_service.service;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotStockLedgerTest {
+
+    private static final int PORT = 6390;
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static HotStockLedger ledger;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redisServer = new RedisServer(PORT);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", PORT));
+        connectionFactory.afterPropertiesSet();
+
+        // Cấu hình giống RedisConfig
+        RedisTemplate<String, String> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new GenericJackson2JsonRedisSerializer());
+        template.afterPropertiesSet();
+        ledger = new HotStockLedger(template);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void flushRedis() {
+        connectionFactory.getConnection().serverCommands().flushAll();
+    }
+
+    @Test
+    void parallelReservationsNeverOversell() throws Exception {
+        ledger.seed(1L, 100, 0);
+
+        AtomicInteger successes = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                futures.add(executor.submit(() -> {
+                    if (ledger.reserve(1L, 1).status() == HotStockLedger.Status.OK) {
+                        successes.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(successes.get()).isEqualTo(100);
+        HotStockLedger.FlushBatch batch = ledger.beginFlush(1L);
+        assertThat(batch.stock()).isZero();
+        assertThat(batch.reserved()).isEqualTo(100);
+    }
+
+    @Test
+    void uncommittedFlushIsReplayedWithSameSeq() {
+        ledger.seed(2L, 10, 5);
+        ledger.reserve(2L, 3);
+        ledger.release(2L, 1);
+
+        HotStockLedger.FlushBatch first = ledger.beginFlush(2L);
+        assertThat(first.seq()).isEqualTo(6);
+        assertThat(first.reserved()).isEqualTo(3);
+        assertThat(first.released()).isEqualTo(1);
+
+        // Crash trước commitFlush: lần flush sau trả lại đúng delta và seq cũ, reservation mới chờ lần sau
+        ledger.reserve(2L, 2);
+        HotStockLedger.FlushBatch replay = ledger.beginFlush(2L);
+        assertThat(replay.seq()).isEqualTo(6);
+        assertThat(replay.reserved()).isEqualTo(3);
+
+        ledger.commitFlush(2L, 6);
+        HotStockLedger.FlushBatch next = ledger.beginFlush(2L);
+        assertThat(next.seq()).isEqualTo(7);
+        assertThat(next.reserved()).isEqualTo(2);
+        assertThat(next.stock()).isEqualTo(6);
+    }
+
+    @Test
+    void closedLedgerRejectsReservations() {
+        ledger.seed(3L, 5, 0);
+        assertThat(ledger.activeProductIds()).contains(3L);
+
+        ledger.close(3L);
+        assertThat(ledger.reserve(3L, 1).status()).isEqualTo(HotStockLedger.Status.NOT_ACTIVE);
+        assertThat(ledger.beginFlush(3L).closed()).isTrue();
+
+        ledger.remove(3L);
+        assertThat(ledger.activeProductIds()).doesNotContain(3L);
+        assertThat(ledger.beginFlush(3L).exists()).isFalse();
+    }
+}
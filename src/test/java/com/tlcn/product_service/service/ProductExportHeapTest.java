@@ -0,0 +1,124 @@
+package com.tlcn.product_service.service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Test nặng (tag "heavy"), không chạy trong mvn test thường. Chạy bằng: mvn test -Pheavy-tests
+// Profile chạy với -Xmx256m: nạp 1 triệu entity vào List sẽ OutOfMemoryError
+@Tag("heavy")
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:file:./target/export-test/db;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@Import(ProductExportService.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ProductExportHeapTest {
+
+    private static final int ROWS = 1_000_000;
+    private static final long MAX_HEAP_GROWTH = 64L * 1024 * 1024;
+
+    @Autowired
+    private ProductExportService productExportService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    void seed() {
+        ProductExportServiceTest.seed(jdbcTemplate, ROWS);
+    }
+
+    @Test
+    void exportsMillionRowsAsNdjsonWithFlatHeap() {
+        HeapSamplingOutputStream out = new HeapSamplingOutputStream();
+        long exported = productExportService.export(null, ProductExportService.Format.NDJSON, out);
+
+        assertThat(exported).isEqualTo(ROWS);
+        assertThat(out.lines).isEqualTo(ROWS);
+        assertThat(out.maxGrowth()).isLessThan(MAX_HEAP_GROWTH);
+    }
+
+    @Test
+    void exportsMillionRowsAsCsvWithFlatHeap() {
+        HeapSamplingOutputStream out = new HeapSamplingOutputStream();
+        long exported = productExportService.export(null, ProductExportService.Format.CSV, out);
+
+        assertThat(exported).isEqualTo(ROWS);
+        // Thêm một dòng header
+        assertThat(out.lines).isEqualTo(ROWS + 1);
+        assertThat(out.maxGrowth()).isLessThan(MAX_HEAP_GROWTH);
+    }
+
+    /**
+     * Bỏ dữ liệu, chỉ đếm số dòng và đo heap sau GC mỗi 200k dòng so với lúc bắt đầu.
+     */
+    private static class HeapSamplingOutputStream extends OutputStream {
+
+        private static final int SAMPLE_EVERY = 200_000;
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final long baseline;
+        private long maxUsed;
+        private long lines;
+
+        HeapSamplingOutputStream() {
+            baseline = usedAfterGc();
+            maxUsed = baseline;
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                onLine();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    onLine();
+                }
+            }
+        }
+
+        private void onLine() {
+            if (++lines % SAMPLE_EVERY == 0) {
+                maxUsed = Math.max(maxUsed, usedAfterGc());
+            }
+        }
+
+        long maxGrowth() {
+            return maxUsed - baseline;
+        }
+
+        private long usedAfterGc() {
+            System.gc();
+            return memory.getHeapMemoryUsage().getUsed();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.tlcn.product_service.service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.OutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Kiểm tra định dạng và filter trên dữ liệu nhỏ; bộ nhớ với 1 triệu dòng xem ProductExportHeapTest
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:export;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@Import(ProductExportService.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ProductExportServiceTest {
+
+    private static final int ROWS = 1_000;
+
+    @Autowired
+    private ProductExportService productExportService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    void seed() {
+        seed(jdbcTemplate, ROWS);
+    }
+
+    static void seed(JdbcTemplate jdbcTemplate, int rows) {
+        jdbcTemplate.update("DELETE FROM product");
+        jdbcTemplate.update("INSERT INTO product (id, name, description, category, price, stock, keycloak_id, image_url, " +
+                "is_deleted, version, is_flash_sale, is_hot_stock) " +
+                "SELECT X, 'product-' || X, 'description, \"quoted\" ' || X, 'category-' || MOD(X, 50), 10.5, 100, " +
+                "'vendor-' || MOD(X, 100), NULL, FALSE, 0, FALSE, FALSE FROM SYSTEM_RANGE(1, " + rows + ")");
+    }
+
+    @Test
+    void exportsNdjsonLinePerProduct() {
+        LineCountingOutputStream out = new LineCountingOutputStream();
+        long exported = productExportService.export(null, ProductExportService.Format.NDJSON, out);
+
+        assertThat(exported).isEqualTo(ROWS);
+        assertThat(out.lines).isEqualTo(ROWS);
+    }
+
+    @Test
+    void exportsCsvWithHeader() {
+        LineCountingOutputStream out = new LineCountingOutputStream();
+        long exported = productExportService.export(null, ProductExportService.Format.CSV, out);
+
+        assertThat(exported).isEqualTo(ROWS);
+        // Thêm một dòng header
+        assertThat(out.lines).isEqualTo(ROWS + 1);
+    }
+
+    @Test
+    void exportsOnlyOneVendor() {
+        LineCountingOutputStream out = new LineCountingOutputStream();
+        long exported = productExportService.export("vendor-7", ProductExportService.Format.NDJSON, out);
+
+        assertThat(exported).isEqualTo(ROWS / 100);
+        assertThat(out.lines).isEqualTo(ROWS / 100);
+    }
+
+    private static class LineCountingOutputStream extends OutputStream {
+
+        private long lines;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+    }
+}
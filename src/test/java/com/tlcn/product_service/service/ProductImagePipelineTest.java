@@ -0,0 +1,140 @@
+package com.tlcn.product_service.service;
+
+import com.tlcn.product_service.model.ImageStatus;
+import com.tlcn.product_service.model.Product;
+import com.tlcn.product_service.repository.ProductRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Pipeline chạy với LocalImageStorage thay cho Cloudinary
+class ProductImagePipelineTest {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G'};
+
+    @TempDir
+    Path tempDir;
+
+    private ProductImagePipeline pipeline;
+    private ProductRepository productRepository;
+    private ProductCacheService productCacheService;
+    private ProductSearchIndexer productSearchIndexer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        productRepository = mock(ProductRepository.class);
+        productCacheService = mock(ProductCacheService.class);
+        productSearchIndexer = mock(ProductSearchIndexer.class);
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        pipeline = new ProductImagePipeline();
+        ReflectionTestUtils.setField(pipeline, "imageStorage", new LocalImageStorage(tempDir.resolve("images")));
+        ReflectionTestUtils.setField(pipeline, "productRepository", productRepository);
+        ReflectionTestUtils.setField(pipeline, "productCacheService", productCacheService);
+        ReflectionTestUtils.setField(pipeline, "productSearchIndexer", productSearchIndexer);
+        ReflectionTestUtils.setField(pipeline, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(pipeline, "stagingDir", tempDir.resolve("staging"));
+        ReflectionTestUtils.setField(pipeline, "poolSize", 2);
+        ReflectionTestUtils.setField(pipeline, "queueCapacity", 10);
+        ReflectionTestUtils.setField(pipeline, "staleAfter", Duration.ofMinutes(15));
+        ReflectionTestUtils.setField(pipeline, "sweepBatchSize", 100);
+        pipeline.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pipeline.stop();
+    }
+
+    @Test
+    void uploadsStagedImageAndReplacesOldOne() throws Exception {
+        Path oldImage = Files.write(tempDir.resolve("old.png"), PNG);
+        Product product = new Product();
+        product.setImageUrl(oldImage.toUri().toString());
+        when(productRepository.findById(1L)).thenReturn(Optional.of(product));
+        when(productRepository.completeImageUpload(eq(1L), anyString(), anyString(), eq(ImageStatus.READY))).thenReturn(1);
+
+        ProductImagePipeline.StagedImage staged = pipeline.stage(new MockMultipartFile("image", "a.png", "image/png", PNG));
+        pipeline.submit(1L, staged);
+
+        ArgumentCaptor<String> url = ArgumentCaptor.forClass(String.class);
+        verify(productRepository, timeout(5000)).completeImageUpload(eq(1L), eq(staged.uploadId()), url.capture(), eq(ImageStatus.READY));
+        verify(productSearchIndexer, timeout(5000)).enqueue(1L);
+        verify(productCacheService, timeout(5000)).evict(1L);
+
+        assertThat(Files.readAllBytes(Path.of(URI.create(url.getValue())))).isEqualTo(PNG);
+        awaitDeleted(oldImage);
+        awaitDeleted(staged.path());
+    }
+
+    @Test
+    void discardsUploadSupersededByNewerImage() throws Exception {
+        when(productRepository.findById(2L)).thenReturn(Optional.of(new Product()));
+        when(productRepository.completeImageUpload(eq(2L), anyString(), anyString(), any())).thenReturn(0);
+
+        ProductImagePipeline.StagedImage staged = pipeline.stage(new MockMultipartFile("image", "b.png", "image/png", PNG));
+        pipeline.submit(2L, staged);
+
+        ArgumentCaptor<String> url = ArgumentCaptor.forClass(String.class);
+        verify(productRepository, timeout(5000)).completeImageUpload(eq(2L), anyString(), url.capture(), any());
+        awaitDeleted(Path.of(URI.create(url.getValue())));
+        verify(productSearchIndexer, never()).enqueue(anyLong());
+    }
+
+    @Test
+    void sweepResumesAbandonedUploadFromStagingOrMarksItFailed() throws Exception {
+        Product resumable = Product.builder().id(3L).imageStatus(ImageStatus.PENDING).imageUploadId("staged-upload").build();
+        Product lost = Product.builder().id(4L).imageStatus(ImageStatus.PENDING).imageUploadId("lost-upload").build();
+        Files.write(tempDir.resolve("staging").resolve("staged-upload"), PNG);
+        when(productRepository.findStaleImageUploads(eq(ImageStatus.PENDING), any(), any())).thenReturn(List.of(resumable, lost));
+        when(productRepository.claimStaleImageUpload(anyLong(), anyString(), eq(ImageStatus.PENDING), any(), any())).thenReturn(1);
+        when(productRepository.findById(3L)).thenReturn(Optional.of(resumable));
+        when(productRepository.completeImageUpload(eq(3L), eq("staged-upload"), anyString(), eq(ImageStatus.READY))).thenReturn(1);
+
+        pipeline.sweepStaleUploads();
+
+        verify(productRepository, timeout(5000)).completeImageUpload(eq(3L), eq("staged-upload"), anyString(), eq(ImageStatus.READY));
+        verify(productRepository).markImageUploadFailed(4L, "lost-upload", ImageStatus.FAILED);
+        awaitDeleted(tempDir.resolve("staging").resolve("staged-upload"));
+    }
+
+    @Test
+    void rejectsUnsupportedImageBeforeStaging() {
+        MockMultipartFile gif = new MockMultipartFile("image", "c.gif", "image/gif", new byte[]{1});
+        assertThatThrownBy(() -> pipeline.stage(gif)).isInstanceOf(ProductService.CustomException.class);
+    }
+
+    private static void awaitDeleted(Path path) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Files.exists(path) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(path).doesNotExist();
+    }
+}